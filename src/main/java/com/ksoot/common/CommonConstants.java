@@ -34,6 +34,8 @@ public final class CommonConstants {
 
   public static final int DEFAULT_PAGE_SIZE = 16;
 
+  public static final String CURSOR_PARAM = "cursor";
+
   // ------ Persistence constants ------
   public static final String GLOBAL_SEQ_ID_GENERATOR = "GLOBAL_SEQ_ID_GENERATOR";
 
@@ -0,0 +1,30 @@
+package com.ksoot.common;
+
+import java.io.Serial;
+import java.util.List;
+import lombok.Getter;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+
+/**
+ * Page whose total number of records may be a lower bound rather than exact, when counting all
+ * matching records is skipped or capped as per {@link TotalMode}.
+ *
+ * @param <T> Class of the content of page
+ */
+@Getter
+public class EstimatedPage<T> extends PageImpl<T> {
+
+  @Serial private static final long serialVersionUID = 1L;
+
+  private final boolean totalExact;
+
+  public EstimatedPage(
+      final List<T> content,
+      final Pageable pageable,
+      final long totalRecords,
+      final boolean totalExact) {
+    super(content, pageable, totalRecords);
+    this.totalExact = totalExact;
+  }
+}
@@ -0,0 +1,28 @@
+package com.ksoot.common;
+
+import java.util.List;
+
+/**
+ * Page of records read by keyset pagination, continued from the position in an opaque cursor
+ * rather than skipping the records of previous pages.
+ *
+ * @param content records of the page
+ * @param pageSize page size, maximum number of records per page
+ * @param totalRecords total number of records available, matching given filters
+ * @param nextCursor cursor to read the next page from, null if this page is the last
+ * @param totalExact whether total number of records is exact, otherwise a lower bound
+ * @param first whether this page is the first, read without a cursor
+ * @param <T> Class of the content of page
+ */
+public record KeysetPage<T>(
+    List<T> content,
+    int pageSize,
+    long totalRecords,
+    String nextCursor,
+    boolean totalExact,
+    boolean first) {
+
+  public boolean hasNext() {
+    return this.nextCursor != null;
+  }
+}
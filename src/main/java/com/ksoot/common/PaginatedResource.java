@@ -17,7 +17,11 @@ public class PaginatedResource<T> implements Iterable<T> {
 
   public PaginatedResource(final Page<T> page) {
     this.content = page.getContent();
-    this.metadata = PaginationData.of(page.getPageable(), page.getTotalElements());
+    this.metadata =
+        PaginationData.of(
+            page.getPageable(),
+            page.getTotalElements(),
+            !(page instanceof EstimatedPage<T> estimatedPage) || estimatedPage.isTotalExact());
   }
 
   public PaginatedResource(
@@ -26,6 +30,17 @@ public class PaginatedResource<T> implements Iterable<T> {
     this.metadata = PaginationData.of(pageable, totalRecords);
   }
 
+  public PaginatedResource(final KeysetPage<T> page) {
+    this.content = page.content();
+    this.metadata =
+        PaginationData.of(
+            page.pageSize(),
+            page.totalRecords(),
+            page.nextCursor(),
+            page.totalExact(),
+            page.first());
+  }
+
   @JsonProperty("page")
   public PaginationData getMetadata() {
     return this.metadata;
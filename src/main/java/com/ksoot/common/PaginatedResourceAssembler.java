@@ -1,5 +1,6 @@
 package com.ksoot.common;
 
+import static com.ksoot.common.CommonConstants.CURSOR_PARAM;
 import static org.springframework.web.util.UriComponentsBuilder.fromUri;
 
 import java.util.List;
@@ -100,6 +101,31 @@ public class PaginatedResourceAssembler {
     return paginatedResource;
   }
 
+  /**
+   * Use in case of non reactive web application, for keyset pagination. The next link is the
+   * current request with the cursor replaced by the cursor of next page
+   *
+   * @param <T> Class of the content of page
+   * @param page Keyset page
+   * @return PaginatedResource
+   */
+  public static <T> PaginatedResource<T> assemble(final KeysetPage<T> page) {
+    Assert.notNull(page, PAGE_MUST_NOT_BE_NULL);
+    Assert.notNull(page.content(), PAGE_CONTENT_MUST_NOT_BE_NULL);
+
+    final UriTemplate base = getUriTemplate();
+    final PaginatedResource<T> paginatedResource = new PaginatedResource<>(page);
+    paginatedResource.getMetadata().add(Link.of(base, IanaLinkRelations.SELF));
+    if (page.hasNext()) {
+      final UriComponentsBuilder builder =
+          fromUri(base.expand()).replaceQueryParam(CURSOR_PARAM, page.nextCursor());
+      paginatedResource
+          .getMetadata()
+          .add(Link.of(UriTemplate.of(builder.build().toString()), IanaLinkRelations.NEXT));
+    }
+    return paginatedResource;
+  }
+
   private static <T> PaginatedResource<T> assemble(final Page<T> page, final UriTemplate base) {
 
     Assert.notNull(page, PAGE_MUST_NOT_BE_NULL);
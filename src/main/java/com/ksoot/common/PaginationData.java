@@ -1,6 +1,7 @@
 package com.ksoot.common;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.swagger.v3.oas.annotations.media.Schema;
 import lombok.AccessLevel;
@@ -39,6 +40,25 @@ public class PaginationData extends RepresentationModel<PaginationData> {
   @Setter(value = AccessLevel.NONE)
   private long totalRecords;
 
+  @Schema(
+      description = "Cursor to get the next page with, in keyset pagination",
+      example = "ZGF0ZXRpbWU6REVTQzoxNzAzMDYwODMzMDAwOm86NjU4M2Q5YThmMGM1YjIyYTRjOGYxYTVl")
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  @Setter(value = AccessLevel.NONE)
+  private String nextCursor;
+
+  @Setter(value = AccessLevel.NONE)
+  @JsonIgnore
+  private boolean keyset;
+
+  // Whether a keyset page was read from a cursor, there is no page number to tell it by
+  @Setter(value = AccessLevel.NONE)
+  @JsonIgnore
+  private boolean continued;
+
+  @Setter(value = AccessLevel.NONE)
+  private boolean totalExact = true;
+
   private PaginationData(
       final int currentPage, final int pageSize, final long totalRecords, final Sort sort) {
     this.currentPage = currentPage;
@@ -59,6 +79,38 @@ public class PaginationData extends RepresentationModel<PaginationData> {
         pageable.getSort());
   }
 
+  public static PaginationData of(
+      final Pageable pageable, final long totalRecords, final boolean totalExact) {
+    final PaginationData paginationData = of(pageable, totalRecords);
+    paginationData.totalExact = totalExact;
+    return paginationData;
+  }
+
+  public static PaginationData of(
+      final int pageSize,
+      final long totalRecords,
+      final String nextCursor,
+      final boolean totalExact,
+      final boolean first) {
+    final PaginationData paginationData =
+        new PaginationData(0, pageSize, totalRecords, Sort.unsorted());
+    paginationData.nextCursor = nextCursor;
+    paginationData.keyset = true;
+    paginationData.continued = !first;
+    paginationData.totalExact = totalExact;
+    return paginationData;
+  }
+
+  @Schema(
+      description =
+          "Is total number of records exact, otherwise a lower bound, if counting was skipped or"
+              + " capped",
+      example = "true")
+  @JsonProperty("isTotalExact")
+  public boolean isTotalExact() {
+    return this.totalExact;
+  }
+
   @Schema(description = "Is this page first", example = "true")
   @JsonProperty("isFirst")
   public boolean isFirst() {
@@ -74,13 +126,13 @@ public class PaginationData extends RepresentationModel<PaginationData> {
   @Schema(description = "Does next page exists", example = "true")
   @JsonProperty("hasNext")
   public boolean hasNext() {
-    return getCurrentPage() + 1 < getTotalPages();
+    return this.keyset ? this.nextCursor != null : getCurrentPage() + 1 < getTotalPages();
   }
 
   @Schema(description = "Does previous page exists", example = "false")
   @JsonProperty("hasPrevious")
   public boolean hasPrevious() {
-    return getCurrentPage() > 0;
+    return this.keyset ? this.continued : getCurrentPage() > 0;
   }
 
   public int queryFirstResult() {
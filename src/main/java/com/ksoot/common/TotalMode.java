@@ -0,0 +1,15 @@
+package com.ksoot.common;
+
+/**
+ * How the total number of records matching given filters is determined for a page.
+ *
+ * @author Rajveer Singh
+ */
+public enum TotalMode {
+  /** Count all matching records. */
+  EXACT,
+  /** Count matching records up to a limit, the total is a lower bound if the limit is reached. */
+  ESTIMATED,
+  /** Do not count, the total is a lower bound telling if there is a next page. */
+  NONE
+}
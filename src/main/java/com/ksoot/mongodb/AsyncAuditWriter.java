@@ -0,0 +1,219 @@
+package com.ksoot.mongodb;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writes Audit records asynchronously while Auditing without Transactions, so the latency of
+ * write requests does not include the Audit write. Audit records are queued in a bounded
+ * in-memory queue and a background drainer writes them with unordered bulk inserts, whenever
+ * {@code batch-size} records are queued or {@code flush-interval} has elapsed.
+ *
+ * <p>A bulk write failing transiently, e.g. MongoDB being unavailable or a revision conflict, is
+ * retried through {@link AuditRetryPolicy} with backoff, skipping the Audit records already
+ * written. If it still fails after {@code max-attempts} and the journal is enabled, the Audit
+ * records are appended to the {@link AuditJournal} and replayed later by {@link
+ * JournalingAuditWriter}, as are spilled Audit records.
+ *
+ * <p>Audit records failing permanently, e.g. on validation or size, or still failing after {@code
+ * max-attempts} without journal are dropped, counted in metric {@code mongodb.audit.async.failed}.
+ * So are Audit records still queued when the application crashes. On graceful shutdown the queue
+ * is drained before the application context is closed.
+ *
+ * @author Rajveer Singh
+ */
+@Component
+@ConditionalOnProperty(
+    prefix = "application.mongodb.auditing",
+    name = "enabled",
+    havingValue = "true")
+@Slf4j
+class AsyncAuditWriter implements InitializingBean, DisposableBean {
+
+  private final MongoAuditProperties.Auditing.Async asyncProperties;
+
+  private final AuditEventWriter auditEventWriter;
+
+  private final JournalingAuditWriter journalingAuditWriter;
+
+  private final AuditRetryPolicy auditRetryPolicy;
+
+  private final MeterRegistry meterRegistry;
+
+  private final BlockingQueue<AuditEvent> queue;
+
+  private final Counter failedCounter;
+
+  private final Counter retryCounter;
+
+  private volatile boolean running;
+
+  private Thread drainer;
+
+  AsyncAuditWriter(
+      final MongoAuditProperties mongoAuditProperties,
+      final AuditEventWriter auditEventWriter,
+      final JournalingAuditWriter journalingAuditWriter,
+      final AuditRetryPolicy auditRetryPolicy,
+      final MeterRegistry meterRegistry) {
+    this.asyncProperties = mongoAuditProperties.getAuditing().getAsync();
+    this.auditEventWriter = auditEventWriter;
+    this.journalingAuditWriter = journalingAuditWriter;
+    this.auditRetryPolicy = auditRetryPolicy;
+    this.meterRegistry = meterRegistry;
+    this.queue = new ArrayBlockingQueue<>(this.asyncProperties.getQueueCapacity());
+    this.failedCounter = meterRegistry.counter("mongodb.audit.async.failed");
+    this.retryCounter = meterRegistry.counter("mongodb.audit.async.retries");
+  }
+
+  boolean isEnabled() {
+    return this.asyncProperties.isEnabled();
+  }
+
+  void submit(final AuditEvent event) {
+    // Identified upfront, so retries of a partially failed bulk write skip written Audit records
+    final AuditEvent auditEvent = JournalingAuditWriter.identify(event);
+    switch (this.asyncProperties.getBackpressure()) {
+      case BLOCK -> {
+        try {
+          this.queue.put(auditEvent);
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException(
+              "Interrupted while queuing Audit record for collection: '"
+                  + auditEvent.getCollectionName()
+                  + "'",
+              e);
+        }
+      }
+      case DROP -> {
+        if (!this.queue.offer(auditEvent)) {
+          this.meterRegistry
+              .counter("mongodb.audit.async.dropped", "collection", auditEvent.getCollectionName())
+              .increment();
+          log.debug(
+              "Audit queue full, dropped Audit record for collection: {}",
+              auditEvent.getCollectionName());
+        }
+      }
+      case SPILL -> {
+        if (!this.queue.offer(auditEvent)) {
+          if (this.journalingAuditWriter.isEnabled()) {
+            this.journalingAuditWriter.append(List.of(auditEvent));
+          } else {
+            this.auditEventWriter.write(List.of(auditEvent));
+          }
+        }
+      }
+    }
+  }
+
+  private void drain() {
+    final int batchSize = this.asyncProperties.getBatchSize();
+    final long flushIntervalNanos = this.asyncProperties.getFlushInterval().toNanos();
+    final List<AuditEvent> batch = new ArrayList<>(batchSize);
+    long deadline = System.nanoTime() + flushIntervalNanos;
+    while (this.running || !this.queue.isEmpty()) {
+      try {
+        final AuditEvent auditEvent =
+            this.queue.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        if (auditEvent != null) {
+          batch.add(auditEvent);
+          this.queue.drainTo(batch, batchSize - batch.size());
+        }
+      } catch (final InterruptedException e) {
+        // Blocking poll would fail right away from now on, so the queue is drained without it
+        Thread.currentThread().interrupt();
+        this.running = false;
+        this.queue.drainTo(batch);
+        break;
+      }
+      if (batch.size() >= batchSize || System.nanoTime() - deadline >= 0) {
+        this.flush(batch);
+        deadline = System.nanoTime() + flushIntervalNanos;
+      }
+    }
+    this.flush(batch);
+  }
+
+  // Failed batches are retried with backoff on transient failures only, skipping Audit records
+  // already written. After max-attempts they are journaled if enabled, else dropped
+  private void flush(final List<AuditEvent> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    List<AuditEvent> pending = List.copyOf(batch);
+    batch.clear();
+    for (int attempt = 1; ; attempt++) {
+      try {
+        if (attempt > 1) {
+          pending = this.auditEventWriter.notWritten(pending);
+        }
+        if (!pending.isEmpty()) {
+          this.auditEventWriter.bulkWrite(pending);
+        }
+        return;
+      } catch (final RuntimeException e) {
+        if (!AuditRetryPolicy.isTransient(e)) {
+          this.drop(pending, e);
+          return;
+        }
+        if (attempt >= this.auditRetryPolicy.maxAttempts() || !this.backoff(attempt)) {
+          if (this.journalingAuditWriter.isEnabled()) {
+            log.warn("Failed to write " + pending.size() + " Audit records, journaling them", e);
+            this.journalingAuditWriter.append(pending);
+          } else {
+            this.drop(pending, e);
+          }
+          return;
+        }
+      }
+    }
+  }
+
+  // False if interrupted, e.g. on shutdown
+  private boolean backoff(final int attempt) {
+    this.retryCounter.increment();
+    try {
+      this.auditRetryPolicy.backoff(attempt);
+      return true;
+    } catch (final IllegalStateException interrupted) {
+      return false;
+    }
+  }
+
+  private void drop(final List<AuditEvent> auditEvents, final RuntimeException exception) {
+    this.failedCounter.increment(auditEvents.size());
+    log.error("Failed to write " + auditEvents.size() + " Audit records, dropped them", exception);
+  }
+
+  @Override
+  public void afterPropertiesSet() {
+    if (this.isEnabled()) {
+      this.meterRegistry.gaugeCollectionSize(
+          "mongodb.audit.async.queue.size", List.of(), this.queue);
+      this.running = true;
+      this.drainer = new Thread(this::drain, "mongodb-audit-writer");
+      this.drainer.setDaemon(true);
+      this.drainer.start();
+    }
+  }
+
+  @Override
+  public void destroy() throws InterruptedException {
+    if (this.drainer != null) {
+      this.running = false;
+      this.drainer.join(this.asyncProperties.getFlushInterval().multipliedBy(10).toMillis());
+    }
+  }
+}
@@ -0,0 +1,1008 @@
+package com.ksoot.mongodb;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Streams;
+import com.google.common.hash.Hashing;
+import com.ksoot.common.TotalMode;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.CollectionUtils;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+
+/**
+ * Archive of cold Audit records in immutable segment files, with a sub directory per Audit
+ * collection. A segment is a sequence of blocks, each of up to {@code archive.block-size} BSON
+ * Audit records deflated together, followed by a sparse index holding the offset of each block,
+ * the number of Audit records, datetime range and revision range of each Source collection within
+ * it, and a Bloom filter of its Source document ids. Queries read the index of each segment and
+ * inflate only the blocks which may hold matching Audit records, in the requested order, stopping
+ * once no further block can make it to the requested page. Totals are taken from the index for
+ * blocks matching the filter as a whole.
+ *
+ * <p>Segments written before Source collections and document ids were indexed are read as well,
+ * pruned by their datetime and revision range only.
+ *
+ * <p>Segments are written to a temporary file, forced to disk and atomically renamed, so a
+ * segment is either complete or absent. Segment indexes are cached, as segments never change.
+ *
+ * @author Rajveer Singh
+ */
+@Component
+@Slf4j
+public class AuditArchive {
+
+  private static final String SEGMENT_PREFIX = "segment-";
+
+  private static final String SEGMENT_SUFFIX = ".archive";
+
+  private static final String TEMPORARY_SUFFIX = ".tmp";
+
+  private static final int MAGIC = 0x41554432;
+
+  // Segments with an index of fixed size entries, without Source collections and document ids
+  private static final int LEGACY_MAGIC = 0x41554441;
+
+  // [index offset][block count][magic]
+  private static final int TRAILER_SIZE = Long.BYTES + 2 * Integer.BYTES;
+
+  // [offset][length][records][min datetime][max datetime][min revision][max revision]
+  private static final int LEGACY_INDEX_ENTRY_SIZE =
+      Long.BYTES + 2 * Integer.BYTES + 4 * Long.BYTES;
+
+  // Bloom filter of document ids of a block, about 1% false positives
+  private static final int BITS_PER_ID = 10;
+
+  private static final int ID_HASHES = 7;
+
+  private static final String DATETIME = "datetime";
+
+  private static final String REVISION = "revision";
+
+  private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec();
+
+  private final MongoAuditProperties.Auditing.Archive archiveProperties;
+
+  private final Path directory;
+
+  private final Map<Path, List<Block>> indexes = new ConcurrentHashMap<>();
+
+  AuditArchive(final MongoAuditProperties mongoAuditProperties) {
+    this.archiveProperties = mongoAuditProperties.getAuditing().getArchive();
+    this.directory = Path.of(this.archiveProperties.getDirectory());
+  }
+
+  /**
+   * Datetime of the newest archived Audit record of given Audit collection, Audit history newer
+   * than it is not archived.
+   *
+   * @param auditCollectionName Audit collection name
+   * @return datetime of the newest archived Audit record, empty if nothing is archived
+   */
+  public Optional<Instant> getNewestDatetime(final String auditCollectionName) {
+    return this.segments(auditCollectionName).stream()
+        .flatMap(segment -> this.index(segment).stream())
+        .map(block -> block.extent().maxDatetime())
+        .max(Long::compare)
+        .map(Instant::ofEpochMilli);
+  }
+
+  /**
+   * Finds archived Audit records matching given filter. Only the first {@code limit} Audit
+   * records in given order are returned, along with the number of matching Audit records as per
+   * given total mode. Unsorted Audit records are returned in the order they were archived.
+   *
+   * @param auditCollectionName Audit collection name
+   * @param filter filter of Audit records
+   * @param sort order of Audit records
+   * @param limit maximum number of Audit records to return
+   * @param totalMode how matching Audit records are counted
+   * @return matching Audit records as stored
+   */
+  public Result find(
+      final String auditCollectionName,
+      final Filter filter,
+      final Sort sort,
+      final int limit,
+      final TotalMode totalMode) {
+    return this.find(auditCollectionName, filter, sort, limit, null, totalMode);
+  }
+
+  /**
+   * Finds archived Audit records matching given filter, ordered after given position. Only the
+   * first {@code limit} Audit records in given order after the position are returned, along with
+   * the number of matching Audit records, irrespective of the position.
+   *
+   * <p>Blocks are read in the order of their datetime or revision range if sorted by either, and
+   * reading stops once no further block can make it to the page. Blocks matching the filter as a
+   * whole are counted from the index. Other blocks not read for the page are inflated to be
+   * counted only if the total is {@link TotalMode#EXACT}, otherwise the total is a lower bound.
+   *
+   * @param auditCollectionName Audit collection name
+   * @param filter filter of Audit records
+   * @param sort order of Audit records, expected to be sorted if position is given
+   * @param limit maximum number of Audit records to return
+   * @param after position in given order, with the sort properties as stored, null if none
+   * @param totalMode how matching Audit records are counted
+   * @return matching Audit records as stored
+   */
+  public Result find(
+      final String auditCollectionName,
+      final Filter filter,
+      final Sort sort,
+      final int limit,
+      final Document after,
+      final TotalMode totalMode) {
+    final Comparator<Document> order = sort.isSorted() ? comparator(sort) : null;
+    final Sort.Order first = order != null ? sort.iterator().next() : null;
+    final boolean bounded =
+        first != null
+            && (DATETIME.equals(first.getProperty()) || REVISION.equals(first.getProperty()));
+    final List<String> path = bounded ? List.of(first.getProperty()) : List.of();
+    final List<Candidate> candidates = new ArrayList<>();
+    for (final Path segment : this.segments(auditCollectionName)) {
+      for (final Block block : this.index(segment)) {
+        if (filter.overlaps(block)) {
+          candidates.add(new Candidate(segment, block, filter.extent(block)));
+        }
+      }
+    }
+    if (bounded) {
+      // Blocks holding the first Audit records in requested order are read first
+      candidates.sort(
+          (left, right) ->
+              direction(first, compareValues(left.best(first), right.best(first))));
+    }
+    // Reversed, so the head is the Audit record to be evicted
+    final PriorityQueue<Document> top =
+        order != null ? new PriorityQueue<>(order.reversed()) : null;
+    final List<Document> auditRecords = new ArrayList<>();
+    long total = 0;
+    boolean totalExact = totalMode != TotalMode.NONE;
+    final Map<Path, FileChannel> channels = new HashMap<>();
+    try {
+      for (final Candidate candidate : candidates) {
+        final boolean paged;
+        if (order == null) {
+          paged = auditRecords.size() < limit;
+        } else if (bounded) {
+          // Blocks whose first Audit record comes after the last one of a full page are not
+          // read, nor blocks whose last Audit record comes before the position
+          final boolean pastPage =
+              top.size() >= limit
+                  && direction(first, compareValues(candidate.best(first), value(top.peek(), path)))
+                      > 0;
+          final boolean beforePosition =
+              after != null
+                  && direction(first, compareValues(candidate.worst(first), value(after, path)))
+                      < 0;
+          paged = !pastPage && !beforePosition;
+        } else {
+          paged = true;
+        }
+        if (!paged && totalMode == TotalMode.NONE) {
+          continue;
+        }
+        if (!paged && filter.covers(candidate.block())) {
+          total += candidate.extent().records();
+          continue;
+        }
+        if (!paged && totalMode == TotalMode.ESTIMATED) {
+          totalExact = false;
+          continue;
+        }
+        final FileChannel channel =
+            channels.computeIfAbsent(candidate.segment(), AuditArchive::open);
+        for (final RawBsonDocument rawAuditRecord : read(channel, candidate.block())) {
+          final Document auditRecord = rawAuditRecord.decode(DOCUMENT_CODEC);
+          if (!filter.matches(auditRecord)) {
+            continue;
+          }
+          total++;
+          if (!paged || after != null && order != null && order.compare(auditRecord, after) <= 0) {
+            continue;
+          }
+          if (top != null) {
+            top.add(auditRecord);
+            if (top.size() > limit) {
+              top.poll();
+            }
+          } else if (auditRecords.size() < limit) {
+            auditRecords.add(auditRecord);
+          }
+        }
+      }
+    } catch (final IOException e) {
+      throw new UncheckedIOException("Could not read Audit archive: " + auditCollectionName, e);
+    } finally {
+      channels.values().forEach(AuditArchive::close);
+    }
+    if (top != null) {
+      auditRecords.addAll(top);
+      auditRecords.sort(order);
+    }
+    return new Result(auditRecords, total, totalExact);
+  }
+
+  /**
+   * Streams archived Audit records matching given filter, in the order they were archived. One
+   * block is inflated at a time, so memory stays bounded irrespective of the number of Audit
+   * records. The stream must be closed to release the segment being read.
+   *
+   * @param auditCollectionName Audit collection name
+   * @param filter filter of Audit records
+   * @return matching Audit records as stored
+   */
+  public Stream<Document> stream(final String auditCollectionName, final Filter filter) {
+    final SegmentIterator iterator =
+        new SegmentIterator(this.segments(auditCollectionName).iterator(), filter);
+    return Streams.stream(iterator).onClose(iterator::close);
+  }
+
+  // Archived Audit record of given revision of a document, null if not archived
+  Document findRevision(
+      final String auditCollectionName,
+      final String collectionName,
+      final Object documentId,
+      final long revision) {
+    final List<Document> auditRecords =
+        this.find(
+                auditCollectionName,
+                new Filter(
+                    collectionName,
+                    List.of(documentId),
+                    null,
+                    List.of(revision),
+                    null,
+                    null,
+                    null),
+                Sort.unsorted(),
+                1,
+                TotalMode.NONE)
+            .auditRecords();
+    return auditRecords.isEmpty() ? null : auditRecords.get(0);
+  }
+
+  // Newest segment of given Audit collection, if any
+  Optional<Path> newestSegment(final String auditCollectionName) {
+    final List<Path> segments = this.segments(auditCollectionName);
+    return segments.isEmpty()
+        ? Optional.empty()
+        : Optional.of(segments.get(segments.size() - 1));
+  }
+
+  // Ids of the Audit records of given segment
+  List<BsonValue> ids(final Path segment) {
+    final List<BsonValue> ids = new ArrayList<>();
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+      for (final Block block : this.index(segment)) {
+        read(channel, block).forEach(auditRecord -> ids.add(auditRecord.get("_id")));
+      }
+    } catch (final IOException e) {
+      throw new UncheckedIOException("Could not read Audit archive segment: " + segment, e);
+    }
+    return ids;
+  }
+
+  // Temporary files left over by a crash are incomplete segments
+  SegmentWriter newSegment(final String auditCollectionName) {
+    final Path collectionDirectory = this.directory.resolve(auditCollectionName);
+    try {
+      Files.createDirectories(collectionDirectory);
+      try (Stream<Path> files = Files.list(collectionDirectory)) {
+        for (final Path temporary :
+            files
+                .filter(file -> file.getFileName().toString().endsWith(TEMPORARY_SUFFIX))
+                .toList()) {
+          Files.deleteIfExists(temporary);
+        }
+      }
+      final long segmentNumber =
+          Math.max(
+              System.currentTimeMillis(),
+              this.newestSegment(auditCollectionName).map(AuditArchive::segmentNumber).orElse(0L)
+                  + 1);
+      return new SegmentWriter(
+          collectionDirectory.resolve(
+              SEGMENT_PREFIX + String.format("%020d", segmentNumber) + SEGMENT_SUFFIX));
+    } catch (final IOException e) {
+      throw new UncheckedIOException(
+          "Could not create Audit archive segment in: " + collectionDirectory, e);
+    }
+  }
+
+  private List<Path> segments(final String auditCollectionName) {
+    final Path collectionDirectory = this.directory.resolve(auditCollectionName);
+    if (!Files.isDirectory(collectionDirectory)) {
+      return List.of();
+    }
+    try (Stream<Path> files = Files.list(collectionDirectory)) {
+      return files
+          .filter(file -> file.getFileName().toString().startsWith(SEGMENT_PREFIX))
+          .filter(file -> file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+          .sorted()
+          .toList();
+    } catch (final IOException e) {
+      throw new UncheckedIOException("Could not list Audit archive: " + collectionDirectory, e);
+    }
+  }
+
+  private List<Block> index(final Path segment) {
+    return this.indexes.computeIfAbsent(segment, AuditArchive::readIndex);
+  }
+
+  private static List<Block> readIndex(final Path segment) {
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+      final ByteBuffer trailer = read(channel, channel.size() - TRAILER_SIZE, TRAILER_SIZE);
+      final long indexOffset = trailer.getLong();
+      final int blockCount = trailer.getInt();
+      final int magic = trailer.getInt();
+      if (magic != MAGIC && magic != LEGACY_MAGIC) {
+        throw new IllegalStateException("Not an Audit archive segment: " + segment);
+      }
+      final ByteBuffer index =
+          read(
+              channel,
+              indexOffset,
+              Math.toIntExact(channel.size() - TRAILER_SIZE - indexOffset));
+      final List<Block> blocks = new ArrayList<>(blockCount);
+      for (int i = 0; i < blockCount; i++) {
+        blocks.add(magic == MAGIC ? Block.read(index) : Block.readLegacy(index));
+      }
+      return List.copyOf(blocks);
+    } catch (final IOException e) {
+      throw new UncheckedIOException("Could not read Audit archive segment: " + segment, e);
+    }
+  }
+
+  private static List<RawBsonDocument> read(final FileChannel channel, final Block block)
+      throws IOException {
+    final byte[] bson;
+    try (InflaterInputStream input =
+        new InflaterInputStream(
+            new ByteArrayInputStream(
+                read(channel, block.offset(), block.length()).array()))) {
+      bson = input.readAllBytes();
+    }
+    final ByteBuffer buffer = ByteBuffer.wrap(bson).order(ByteOrder.LITTLE_ENDIAN);
+    final List<RawBsonDocument> auditRecords = new ArrayList<>(block.extent().records());
+    int position = 0;
+    while (position < bson.length) {
+      final int length = buffer.getInt(position);
+      auditRecords.add(new RawBsonDocument(bson, position, length));
+      position += length;
+    }
+    return auditRecords;
+  }
+
+  private static ByteBuffer read(final FileChannel channel, final long position, final int length)
+      throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new EOFException("Truncated Audit archive segment");
+      }
+    }
+    return buffer.flip();
+  }
+
+  private static FileChannel open(final Path segment) {
+    try {
+      return FileChannel.open(segment, StandardOpenOption.READ);
+    } catch (final IOException e) {
+      throw new UncheckedIOException("Could not read Audit archive segment: " + segment, e);
+    }
+  }
+
+  private static void close(final FileChannel channel) {
+    try {
+      channel.close();
+    } catch (final IOException e) {
+      log.warn("Could not close Audit archive segment", e);
+    }
+  }
+
+  // Flips the result of comparison of values in ascending order as per the direction of order
+  private static int direction(final Sort.Order order, final int comparison) {
+    return order.isDescending() ? -comparison : comparison;
+  }
+
+  /**
+   * Key of a Source document id in the Bloom filters of blocks, same for a value as stored and as
+   * decoded. Numbers are keyed by value, as MongoDB matches them irrespective of their type.
+   *
+   * @param id document id, as stored or decoded
+   * @return key of the document id, null if of a type not indexed
+   */
+  private static byte[] idKey(final Object id) {
+    final Object value;
+    if (id instanceof BsonValue bsonValue) {
+      value =
+          switch (bsonValue.getBsonType()) {
+            case OBJECT_ID -> bsonValue.asObjectId().getValue();
+            case STRING -> bsonValue.asString().getValue();
+            case INT32 -> bsonValue.asInt32().getValue();
+            case INT64 -> bsonValue.asInt64().getValue();
+            case DOUBLE -> bsonValue.asDouble().getValue();
+            default -> null;
+          };
+    } else {
+      value = id;
+    }
+    if (value instanceof ObjectId objectId) {
+      return ByteBuffer.allocate(13).put((byte) 'o').put(objectId.toByteArray()).array();
+    } else if (value instanceof String string) {
+      return ("s" + string).getBytes(StandardCharsets.UTF_8);
+    } else if (value instanceof Integer || value instanceof Long) {
+      return ByteBuffer.allocate(9).put((byte) 'l').putLong(((Number) value).longValue()).array();
+    } else if (value instanceof Double number) {
+      return number == Math.rint(number) && Math.abs(number) < 0x1p63
+          ? ByteBuffer.allocate(9).put((byte) 'l').putLong(number.longValue()).array()
+          : ByteBuffer.allocate(9)
+              .put((byte) 'd')
+              .putLong(Double.doubleToLongBits(number))
+              .array();
+    }
+    return null;
+  }
+
+  private static long segmentNumber(final Path path) {
+    final String fileName = path.getFileName().toString();
+    return Long.parseLong(
+        fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  /**
+   * Order of Audit records as stored, as per given sort. Missing values come first in ascending
+   * order, as in MongoDB.
+   *
+   * @param sort sort, expected to be sorted
+   * @return comparator of Audit records
+   */
+  public static Comparator<Document> comparator(final Sort sort) {
+    Comparator<Document> comparator = null;
+    for (final Sort.Order order : sort) {
+      final List<String> path = List.of(order.getProperty().split("\\."));
+      Comparator<Document> next =
+          (left, right) -> compareValues(value(left, path), value(right, path));
+      if (order.isDescending()) {
+        next = next.reversed();
+      }
+      comparator = comparator == null ? next : comparator.thenComparing(next);
+    }
+    return comparator;
+  }
+
+  private static Object value(final Document document, final List<String> path) {
+    Object value = document;
+    for (final String key : path) {
+      if (!(value instanceof Document embedded)) {
+        return null;
+      }
+      value = embedded.get(key);
+    }
+    return value;
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static int compareValues(final Object left, final Object right) {
+    if (left == null || right == null) {
+      return left == null ? (right == null ? 0 : -1) : 1;
+    }
+    if (left instanceof Number leftNumber && right instanceof Number rightNumber) {
+      return Double.compare(leftNumber.doubleValue(), rightNumber.doubleValue());
+    }
+    if (left instanceof Comparable comparable && left.getClass() == right.getClass()) {
+      return comparable.compareTo(right);
+    }
+    return left.getClass().getName().compareTo(right.getClass().getName());
+  }
+
+  /**
+   * Filter of archived Audit records, fields set to null or empty match all Audit records.
+   *
+   * @param collectionName Source collection name
+   * @param documentIds Source document ids, as stored
+   * @param type Audit record type
+   * @param revisions Audit revisions
+   * @param actor Audit actor
+   * @param from datetime from, inclusive
+   * @param till datetime till, inclusive
+   */
+  public record Filter(
+      String collectionName,
+      Collection<?> documentIds,
+      AuditEvent.Type type,
+      Collection<Long> revisions,
+      String actor,
+      Instant from,
+      Instant till) {
+
+    // Range of the Source collection within the block, null if the block holds none of it
+    private Extent extent(final Block block) {
+      return this.collectionName == null || block.collections() == null
+          ? block.extent()
+          : block.collections().get(this.collectionName);
+    }
+
+    private boolean overlaps(final Block block) {
+      final Extent extent = this.extent(block);
+      return extent != null
+          && (this.from == null || extent.maxDatetime() >= this.from.toEpochMilli())
+          && (this.till == null || extent.minDatetime() <= this.till.toEpochMilli())
+          && (CollectionUtils.isEmpty(this.revisions)
+              || this.revisions.stream()
+                  .anyMatch(
+                      revision ->
+                          revision >= extent.minRevision() && revision <= extent.maxRevision()))
+          && (CollectionUtils.isEmpty(this.documentIds)
+              || block.ids() == null
+              || this.documentIds.stream().anyMatch(block.ids()::mightContain));
+    }
+
+    // Whether all Audit records of the Source collection within the block match, so they can be
+    // counted from the index
+    private boolean covers(final Block block) {
+      final Extent extent = this.extent(block);
+      return extent != null
+          && (this.collectionName == null || block.collections() != null)
+          && CollectionUtils.isEmpty(this.documentIds)
+          && this.type == null
+          && CollectionUtils.isEmpty(this.revisions)
+          && this.actor == null
+          && (this.from == null || extent.minDatetime() >= this.from.toEpochMilli())
+          && (this.till == null || extent.maxDatetime() <= this.till.toEpochMilli());
+    }
+
+    private boolean matches(final Document auditRecord) {
+      final Document source = auditRecord.get("source", Document.class);
+      final Date datetime = auditRecord.getDate("datetime");
+      return (this.collectionName == null
+              || this.collectionName.equals(auditRecord.getString("collectionName")))
+          && (CollectionUtils.isEmpty(this.documentIds)
+              || source != null && this.documentIds.contains(source.get("_id")))
+          && (this.type == null || this.type.name().equals(auditRecord.getString("type")))
+          && (CollectionUtils.isEmpty(this.revisions)
+              || auditRecord.get("revision") instanceof Number revision
+                  && this.revisions.contains(revision.longValue()))
+          && (this.actor == null || this.actor.equals(auditRecord.getString("actor")))
+          && (this.from == null || datetime != null && !datetime.toInstant().isBefore(this.from))
+          && (this.till == null || datetime != null && !datetime.toInstant().isAfter(this.till));
+    }
+  }
+
+  /**
+   * @param auditRecords first matching Audit records, as stored
+   * @param total number of matching Audit records, a lower bound unless exact
+   * @param totalExact whether total is exact
+   */
+  public record Result(List<Document> auditRecords, long total, boolean totalExact) {}
+
+  // Block which may hold matching Audit records, with the range of the requested Source collection
+  private record Candidate(Path segment, Block block, Extent extent) {
+
+    // Value of the sort property of the first Audit record of the block in given order
+    private Object best(final Sort.Order order) {
+      return this.bound(order, order.isAscending());
+    }
+
+    // Value of the sort property of the last Audit record of the block in given order
+    private Object worst(final Sort.Order order) {
+      return this.bound(order, order.isDescending());
+    }
+
+    private Object bound(final Sort.Order order, final boolean min) {
+      return DATETIME.equals(order.getProperty())
+          ? new Date(min ? this.extent.minDatetime() : this.extent.maxDatetime())
+          : Long.valueOf(min ? this.extent.minRevision() : this.extent.maxRevision());
+    }
+  }
+
+  private final class SegmentIterator extends AbstractIterator<Document> {
+
+    private final Iterator<Path> segments;
+
+    private final Filter filter;
+
+    private Path segment;
+
+    private FileChannel channel;
+
+    private Iterator<Block> blocks = Collections.emptyIterator();
+
+    private Iterator<RawBsonDocument> auditRecords = Collections.emptyIterator();
+
+    private SegmentIterator(final Iterator<Path> segments, final Filter filter) {
+      this.segments = segments;
+      this.filter = filter;
+    }
+
+    @Override
+    protected Document computeNext() {
+      try {
+        while (true) {
+          while (this.auditRecords.hasNext()) {
+            final Document auditRecord = this.auditRecords.next().decode(DOCUMENT_CODEC);
+            if (this.filter.matches(auditRecord)) {
+              return auditRecord;
+            }
+          }
+          if (this.blocks.hasNext()) {
+            final Block block = this.blocks.next();
+            if (this.filter.overlaps(block)) {
+              this.auditRecords = read(this.channel, block).iterator();
+            }
+            continue;
+          }
+          this.close();
+          if (!this.segments.hasNext()) {
+            return this.endOfData();
+          }
+          this.segment = this.segments.next();
+          this.channel = FileChannel.open(this.segment, StandardOpenOption.READ);
+          this.blocks = AuditArchive.this.index(this.segment).iterator();
+        }
+      } catch (final IOException e) {
+        this.close();
+        throw new UncheckedIOException("Could not read Audit archive segment: " + this.segment, e);
+      }
+    }
+
+    private void close() {
+      if (this.channel != null) {
+        try {
+          this.channel.close();
+        } catch (final IOException e) {
+          log.warn("Could not close Audit archive segment: " + this.segment, e);
+        }
+        this.channel = null;
+      }
+    }
+  }
+
+  /**
+   * Index entry of a block.
+   *
+   * @param offset offset of the block in the segment
+   * @param length deflated length of the block
+   * @param extent range of all Audit records of the block
+   * @param collections range of the Audit records of each Source collection, null if not indexed
+   * @param ids Bloom filter of Source document ids, null if not indexed
+   */
+  private record Block(
+      long offset, int length, Extent extent, Map<String, Extent> collections, IdFilter ids) {
+
+    private static Block read(final ByteBuffer index) {
+      final long offset = index.getLong();
+      final int length = index.getInt();
+      final Extent extent = Extent.read(index);
+      final int collectionCount = index.getInt();
+      final Map<String, Extent> collections = new HashMap<>(collectionCount * 2);
+      for (int i = 0; i < collectionCount; i++) {
+        final byte[] name = new byte[index.getInt()];
+        index.get(name);
+        collections.put(new String(name, StandardCharsets.UTF_8), Extent.read(index));
+      }
+      return new Block(
+          offset, length, extent, Map.copyOf(collections), IdFilter.read(index));
+    }
+
+    private static Block readLegacy(final ByteBuffer index) {
+      final long offset = index.getLong();
+      final int length = index.getInt();
+      return new Block(
+          offset,
+          length,
+          new Extent(
+              index.getInt(), index.getLong(), index.getLong(), index.getLong(), index.getLong()),
+          null,
+          null);
+    }
+
+    private void write(final DataOutputStream index) throws IOException {
+      index.writeLong(this.offset);
+      index.writeInt(this.length);
+      this.extent.write(index);
+      index.writeInt(this.collections.size());
+      for (final Map.Entry<String, Extent> collection : this.collections.entrySet()) {
+        final byte[] name = collection.getKey().getBytes(StandardCharsets.UTF_8);
+        index.writeInt(name.length);
+        index.write(name);
+        collection.getValue().write(index);
+      }
+      this.ids.write(index);
+    }
+  }
+
+  /**
+   * Number of Audit records and their datetime and revision range.
+   *
+   * @param records number of Audit records
+   * @param minDatetime oldest datetime in epoch millis
+   * @param maxDatetime newest datetime in epoch millis
+   * @param minRevision lowest revision
+   * @param maxRevision highest revision
+   */
+  private record Extent(
+      int records, long minDatetime, long maxDatetime, long minRevision, long maxRevision) {
+
+    private static final Extent EMPTY =
+        new Extent(0, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE);
+
+    private static Extent read(final ByteBuffer index) {
+      return new Extent(
+          index.getInt(), index.getLong(), index.getLong(), index.getLong(), index.getLong());
+    }
+
+    // Extent including one more Audit record, missing datetime or revision leave the range as is
+    private Extent with(final BsonValue datetime, final BsonValue revision) {
+      final boolean hasDatetime = datetime != null && datetime.isDateTime();
+      final boolean hasRevision = revision != null && revision.isNumber();
+      return new Extent(
+          this.records + 1,
+          hasDatetime
+              ? Math.min(this.minDatetime, datetime.asDateTime().getValue())
+              : this.minDatetime,
+          hasDatetime
+              ? Math.max(this.maxDatetime, datetime.asDateTime().getValue())
+              : this.maxDatetime,
+          hasRevision
+              ? Math.min(this.minRevision, revision.asNumber().longValue())
+              : this.minRevision,
+          hasRevision
+              ? Math.max(this.maxRevision, revision.asNumber().longValue())
+              : this.maxRevision);
+    }
+
+    private void write(final DataOutputStream index) throws IOException {
+      index.writeInt(this.records);
+      index.writeLong(this.minDatetime);
+      index.writeLong(this.maxDatetime);
+      index.writeLong(this.minRevision);
+      index.writeLong(this.maxRevision);
+    }
+  }
+
+  /**
+   * Bloom filter of the Source document ids of a block, with no false negatives. Ids of types not
+   * keyed by {@link #idKey(Object)} are not indexed, a block holding any of them always matches.
+   */
+  private static final class IdFilter {
+
+    private final long[] bits;
+
+    private final boolean complete;
+
+    private IdFilter(final long[] bits, final boolean complete) {
+      this.bits = bits;
+      this.complete = complete;
+    }
+
+    private static IdFilter of(final List<byte[]> keys, final boolean complete) {
+      final long[] bits = new long[Math.max(1, (keys.size() * BITS_PER_ID + 63) / 64)];
+      for (final byte[] key : keys) {
+        final long[] hashes = hashes(key);
+        for (int i = 0; i < ID_HASHES; i++) {
+          final long bit = Math.floorMod(hashes[0] + i * hashes[1], bits.length * 64L);
+          bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+      }
+      return new IdFilter(bits, complete);
+    }
+
+    private static IdFilter read(final ByteBuffer index) {
+      final boolean complete = index.get() != 0;
+      final long[] bits = new long[index.getInt()];
+      for (int i = 0; i < bits.length; i++) {
+        bits[i] = index.getLong();
+      }
+      return new IdFilter(bits, complete);
+    }
+
+    // Murmur3 is stable across releases, so the filters of existing segments stay valid
+    private static long[] hashes(final byte[] key) {
+      final ByteBuffer hash =
+          ByteBuffer.wrap(Hashing.murmur3_128().hashBytes(key).asBytes())
+              .order(ByteOrder.LITTLE_ENDIAN);
+      return new long[] {hash.getLong(), hash.getLong()};
+    }
+
+    private boolean mightContain(final Object id) {
+      final byte[] key = idKey(id);
+      if (!this.complete || key == null) {
+        return true;
+      }
+      final long[] hashes = hashes(key);
+      for (int i = 0; i < ID_HASHES; i++) {
+        final long bit = Math.floorMod(hashes[0] + i * hashes[1], this.bits.length * 64L);
+        if ((this.bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void write(final DataOutputStream index) throws IOException {
+      index.writeBoolean(this.complete);
+      index.writeInt(this.bits.length);
+      for (final long word : this.bits) {
+        index.writeLong(word);
+      }
+    }
+  }
+
+  // Writes a segment block by block, the segment becomes visible on commit
+  final class SegmentWriter {
+
+    private final Path path;
+
+    private final Path temporary;
+
+    private final FileChannel channel;
+
+    private final List<Block> blocks = new ArrayList<>();
+
+    private final List<BsonValue> ids = new ArrayList<>();
+
+    private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+
+    private long position;
+
+    private Extent extent = Extent.EMPTY;
+
+    private final Map<String, Extent> collections = new LinkedHashMap<>();
+
+    private final List<byte[]> idKeys = new ArrayList<>();
+
+    private boolean idsComplete = true;
+
+    private SegmentWriter(final Path path) throws IOException {
+      this.path = path;
+      this.temporary = path.resolveSibling(path.getFileName() + TEMPORARY_SUFFIX);
+      this.channel =
+          FileChannel.open(
+              this.temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    void append(final RawBsonDocument auditRecord) {
+      final ByteBuffer bson = auditRecord.getByteBuffer().asNIO();
+      final byte[] bytes = new byte[bson.remaining()];
+      bson.get(bytes);
+      this.block.writeBytes(bytes);
+      final BsonValue datetime = auditRecord.get(DATETIME);
+      final BsonValue revision = auditRecord.get(REVISION);
+      this.extent = this.extent.with(datetime, revision);
+      final BsonValue collectionName = auditRecord.get("collectionName");
+      if (collectionName != null && collectionName.isString()) {
+        this.collections.merge(
+            collectionName.asString().getValue(),
+            Extent.EMPTY.with(datetime, revision),
+            (extent, next) -> extent.with(datetime, revision));
+      } else {
+        // Audit records without a Source collection are not counted by Source collection
+        this.idsComplete = false;
+      }
+      final BsonValue source = auditRecord.get("source");
+      final byte[] idKey =
+          source != null && source.isDocument() ? idKey(source.asDocument().get("_id")) : null;
+      if (idKey != null) {
+        this.idKeys.add(idKey);
+      } else {
+        this.idsComplete = false;
+      }
+      this.ids.add(auditRecord.get("_id"));
+      if (this.extent.records() == AuditArchive.this.archiveProperties.getBlockSize()) {
+        this.flushBlock();
+      }
+    }
+
+    int size() {
+      return this.ids.size();
+    }
+
+    List<BsonValue> ids() {
+      return this.ids;
+    }
+
+    Path commit() {
+      try {
+        this.flushBlock();
+        final ByteArrayOutputStream index = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(index)) {
+          for (final Block entry : this.blocks) {
+            entry.write(output);
+          }
+          output.writeLong(this.position);
+          output.writeInt(this.blocks.size());
+          output.writeInt(MAGIC);
+        }
+        this.write(ByteBuffer.wrap(index.toByteArray()));
+        this.channel.force(true);
+        this.channel.close();
+        Files.move(this.temporary, this.path, StandardCopyOption.ATOMIC_MOVE);
+        AuditArchive.this.indexes.put(this.path, List.copyOf(this.blocks));
+        return this.path;
+      } catch (final IOException e) {
+        this.abort();
+        throw new UncheckedIOException("Could not write Audit archive segment: " + this.path, e);
+      }
+    }
+
+    void abort() {
+      try {
+        this.channel.close();
+        Files.deleteIfExists(this.temporary);
+      } catch (final IOException e) {
+        log.warn("Could not delete Audit archive segment: " + this.temporary, e);
+      }
+    }
+
+    private void flushBlock() {
+      if (this.extent.records() == 0) {
+        return;
+      }
+      try {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(this.block.size() / 4);
+        try (DeflaterOutputStream output = new DeflaterOutputStream(compressed)) {
+          this.block.writeTo(output);
+        }
+        this.blocks.add(
+            new Block(
+                this.position,
+                compressed.size(),
+                this.extent,
+                Map.copyOf(this.collections),
+                IdFilter.of(this.idKeys, this.idsComplete)));
+        this.write(ByteBuffer.wrap(compressed.toByteArray()));
+      } catch (final IOException e) {
+        throw new UncheckedIOException("Could not write Audit archive segment: " + this.path, e);
+      }
+      this.block.reset();
+      this.extent = Extent.EMPTY;
+      this.collections.clear();
+      this.idKeys.clear();
+      this.idsComplete = true;
+    }
+
+    private void write(final ByteBuffer buffer) throws IOException {
+      while (buffer.hasRemaining()) {
+        this.position += this.channel.write(buffer);
+      }
+    }
+  }
+}
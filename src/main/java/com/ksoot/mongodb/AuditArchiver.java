@@ -0,0 +1,284 @@
+package com.ksoot.mongodb;
+
+import com.google.common.collect.Lists;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.stereotype.Component;
+
+/**
+ * Moves Audit records older than {@code archive.age} from Audit collections to the {@link
+ * AuditArchive}, enabled by setting {@code application.mongodb.auditing.archive.enabled} to {@code
+ * true}. A background worker reads cold Audit records in datetime order every {@code
+ * archive.interval}, writes them to segments of up to {@code archive.segment-size} records and
+ * deletes them from the Audit collection once their segment is durable. Archived Audit records are
+ * counted in metric {@code mongodb.audit.archived}.
+ *
+ * <p>The latest revision of each document audited with {@link Auditable.RevisionScope#DOCUMENT}
+ * is kept in the Audit collection, as next revisions of the document are allocated from it.
+ * Time-series Audit collections are not archived, they expire through MongoDB retention.
+ *
+ * <p>Audit records of a segment not deleted because of a failure or a restart are deleted before
+ * the next segment is written, so Audit records are never in both tiers for long.
+ *
+ * @author Rajveer Singh
+ */
+@Component
+@ConditionalOnProperty(
+    prefix = "application.mongodb.auditing",
+    name = "enabled",
+    havingValue = "true")
+@Slf4j
+class AuditArchiver implements SmartLifecycle {
+
+  private static final long SHUTDOWN_TIMEOUT_MILLIS = 10000;
+
+  private final MongoAuditProperties.Auditing.Archive archiveProperties;
+
+  private final MongoOperations mongoOperations;
+
+  private final AuditMetaData auditMetaData;
+
+  private final AuditArchive auditArchive;
+
+  private final MeterRegistry meterRegistry;
+
+  // Segments whose Audit records may still be in the Audit collection, by Audit collection
+  private final Map<Path, String> unacknowledged = new LinkedHashMap<>();
+
+  private final Set<String> recovered = new HashSet<>();
+
+  private volatile boolean running;
+
+  private Thread worker;
+
+  AuditArchiver(
+      final MongoAuditProperties mongoAuditProperties,
+      final MongoOperations mongoOperations,
+      final AuditMetaData auditMetaData,
+      final AuditArchive auditArchive,
+      final MeterRegistry meterRegistry) {
+    this.archiveProperties = mongoAuditProperties.getAuditing().getArchive();
+    this.mongoOperations = mongoOperations;
+    this.auditMetaData = auditMetaData;
+    this.auditArchive = auditArchive;
+    this.meterRegistry = meterRegistry;
+  }
+
+  private void archive() {
+    while (this.running) {
+      try {
+        this.auditCollectionScopes().forEach(this::archive);
+      } catch (final RuntimeException e) {
+        log.error("Audit archival failed, retrying in " + this.archiveProperties.getInterval(), e);
+      }
+      try {
+        Thread.sleep(this.archiveProperties.getInterval().toMillis());
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        this.running = false;
+      }
+    }
+  }
+
+  private void archive(
+      final String auditCollectionName, final Auditable.RevisionScope revisionScope) {
+    if (this.recovered.add(auditCollectionName)) {
+      // Newest segment may not have been deleted from the Audit collection before restart
+      this.auditArchive
+          .newestSegment(auditCollectionName)
+          .ifPresent(segment -> this.unacknowledged.put(segment, auditCollectionName));
+    }
+    this.acknowledge();
+    final int blockSize = this.archiveProperties.getBlockSize();
+    final Date cutoff = Date.from(Instant.now().minus(this.archiveProperties.getAge()));
+    final MongoCollection<RawBsonDocument> collection =
+        this.mongoOperations
+            .getCollection(auditCollectionName)
+            .withDocumentClass(RawBsonDocument.class);
+    AuditArchive.SegmentWriter segment = null;
+    try (MongoCursor<RawBsonDocument> cursor =
+        collection
+            .find(Filters.lt("datetime", cutoff))
+            .sort(Sorts.ascending("datetime"))
+            .batchSize(blockSize)
+            .cursor()) {
+      final List<RawBsonDocument> batch = new ArrayList<>(blockSize);
+      while (this.running && cursor.hasNext()) {
+        batch.add(cursor.next());
+        if (batch.size() < blockSize && cursor.hasNext()) {
+          continue;
+        }
+        for (final RawBsonDocument auditRecord :
+            revisionScope == Auditable.RevisionScope.DOCUMENT
+                ? this.withoutLatestRevisions(auditCollectionName, batch)
+                : batch) {
+          if (segment == null) {
+            segment = this.auditArchive.newSegment(auditCollectionName);
+          }
+          segment.append(auditRecord);
+        }
+        batch.clear();
+        if (segment != null && segment.size() >= this.archiveProperties.getSegmentSize()) {
+          this.commit(auditCollectionName, segment);
+          segment = null;
+        }
+      }
+      if (segment != null && this.running) {
+        this.commit(auditCollectionName, segment);
+        segment = null;
+      }
+    } finally {
+      if (segment != null) {
+        segment.abort();
+      }
+    }
+  }
+
+  private void commit(
+      final String auditCollectionName, final AuditArchive.SegmentWriter segmentWriter) {
+    final Path segment = segmentWriter.commit();
+    this.unacknowledged.put(segment, auditCollectionName);
+    this.delete(auditCollectionName, segment, segmentWriter.ids());
+    this.meterRegistry
+        .counter("mongodb.audit.archived", "auditCollection", auditCollectionName)
+        .increment(segmentWriter.size());
+    log.debug(
+        "Archived {} Audit records of Audit collection: {} to segment: {}",
+        segmentWriter.size(),
+        auditCollectionName,
+        segment);
+  }
+
+  private void acknowledge() {
+    new LinkedHashMap<>(this.unacknowledged)
+        .forEach(
+            (segment, auditCollectionName) ->
+                this.delete(auditCollectionName, segment, this.auditArchive.ids(segment)));
+  }
+
+  private void delete(
+      final String auditCollectionName, final Path segment, final List<BsonValue> ids) {
+    final MongoCollection<Document> collection =
+        this.mongoOperations.getCollection(auditCollectionName);
+    Lists.partition(ids, this.archiveProperties.getBlockSize())
+        .forEach(partition -> collection.deleteMany(Filters.in("_id", partition)));
+    this.unacknowledged.remove(segment);
+  }
+
+  // The latest revision of each document is kept, next revisions of the document follow it
+  private List<RawBsonDocument> withoutLatestRevisions(
+      final String auditCollectionName, final List<RawBsonDocument> auditRecords) {
+    final Map<String, Set<BsonValue>> documentIds = new LinkedHashMap<>();
+    auditRecords.forEach(
+        auditRecord ->
+            documentIds
+                .computeIfAbsent(
+                    auditRecord.getString("collectionName").getValue(), key -> new HashSet<>())
+                .add(auditRecord.getDocument("source").get("_id")));
+    final List<Bson> filters =
+        documentIds.entrySet().stream()
+            .<Bson>map(
+                entry ->
+                    Filters.and(
+                        Filters.eq("collectionName", entry.getKey()),
+                        Filters.in("source._id", entry.getValue())))
+            .toList();
+    final Set<LatestRevision> latestRevisions =
+        this.mongoOperations
+            .getCollection(auditCollectionName)
+            .aggregate(
+                List.of(
+                    Aggregates.match(Filters.or(filters)),
+                    Aggregates.group(
+                        new Document("collectionName", "$collectionName")
+                            .append("documentId", "$source._id"),
+                        Accumulators.max("revision", "$revision"))),
+                BsonDocument.class)
+            .into(new ArrayList<>())
+            .stream()
+            .map(
+                latest ->
+                    new LatestRevision(
+                        latest.getDocument("_id").getString("collectionName").getValue(),
+                        latest.getDocument("_id").get("documentId"),
+                        latest.getNumber("revision").longValue()))
+            .collect(Collectors.toSet());
+    return auditRecords.stream()
+        .filter(
+            auditRecord ->
+                !latestRevisions.contains(
+                    new LatestRevision(
+                        auditRecord.getString("collectionName").getValue(),
+                        auditRecord.getDocument("source").get("_id"),
+                        auditRecord.getNumber("revision").longValue())))
+        .toList();
+  }
+
+  // Revision scope is same for all Source collections sharing an Audit collection
+  private Map<String, Auditable.RevisionScope> auditCollectionScopes() {
+    final Map<String, Auditable.RevisionScope> auditCollectionScopes = new LinkedHashMap<>();
+    for (final String collectionName : this.auditMetaData.getCollectionNames()) {
+      final AuditMetaData.Metadata metadata = this.auditMetaData.get(collectionName);
+      if (!metadata.timeSeries()) {
+        auditCollectionScopes.put(metadata.auditCollectionName(), metadata.revisionScope());
+      }
+    }
+    return auditCollectionScopes;
+  }
+
+  private record LatestRevision(String collectionName, BsonValue documentId, long revision) {}
+
+  @Override
+  public void start() {
+    if (this.archiveProperties.isEnabled()) {
+      this.running = true;
+      this.worker = new Thread(this::archive, "mongodb-audit-archiver");
+      this.worker.setDaemon(true);
+      this.worker.start();
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (this.worker != null) {
+      // A segment being written is discarded, its Audit records remain in the Audit collection
+      this.running = false;
+      this.worker.interrupt();
+      try {
+        this.worker.join(SHUTDOWN_TIMEOUT_MILLIS);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      this.worker = null;
+    }
+  }
+
+  @Override
+  public boolean isRunning() {
+    return this.running;
+  }
+}
@@ -0,0 +1,186 @@
+package com.ksoot.mongodb;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+/**
+ * Detects Audit records of updates which did not change the audited fields of the Source
+ * document, e.g. saves of unchanged entities, which only increment the version. A hash of the
+ * projected snapshot, excluding the version field, is stored in each Audit record and compared
+ * with the hash of the previous revision of the document. Duplicates are skipped or marked as per
+ * {@code application.mongodb.auditing.deduplication.mode}, and counted in metric {@code
+ * mongodb.audit.duplicates}.
+ *
+ * <p>The last hash of recently changed versioned documents is kept in a bounded cache along with
+ * the version. The cached hash is used only if the version of the update directly follows it,
+ * otherwise the hash is read from the latest Audit record of the document, so updates audited
+ * by other application instances are accounted for. Documents without a version are always
+ * compared with their latest Audit record, as a cached hash can not tell if it is still the latest.
+ * Within a batch, e.g. of a Transaction or of asynchronous writes, Audit records of a document are
+ * compared with the preceding one of the same batch.
+ *
+ * @author Rajveer Singh
+ */
+@Component
+@ConditionalOnProperty(
+    prefix = "application.mongodb.auditing",
+    name = "enabled",
+    havingValue = "true")
+class AuditDeduplicator {
+
+  private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec();
+
+  private final MongoAuditProperties.Auditing.Deduplication deduplicationProperties;
+
+  private final MongoOperations mongoOperations;
+
+  private final AuditMetaData auditMetaData;
+
+  private final MeterRegistry meterRegistry;
+
+  private final Cache<DocumentKey, DocumentHash> hashes;
+
+  AuditDeduplicator(
+      final MongoAuditProperties mongoAuditProperties,
+      final MongoOperations mongoOperations,
+      final AuditMetaData auditMetaData,
+      final MeterRegistry meterRegistry) {
+    this.deduplicationProperties = mongoAuditProperties.getAuditing().getDeduplication();
+    this.mongoOperations = mongoOperations;
+    this.auditMetaData = auditMetaData;
+    this.meterRegistry = meterRegistry;
+    this.hashes =
+        CacheBuilder.newBuilder().maximumSize(this.deduplicationProperties.getCacheSize()).build();
+  }
+
+  boolean isEnabled() {
+    return this.deduplicationProperties.getMode() != MongoAuditProperties.DuplicateHandling.AUDIT;
+  }
+
+  // Expects projected Audit records, in the order they are written
+  List<AuditEvent> deduplicate(
+      final String auditCollectionName, final List<AuditEvent> auditEvents) {
+    if (!this.isEnabled()) {
+      return auditEvents;
+    }
+    final List<AuditEvent> deduplicated = new ArrayList<>(auditEvents.size());
+    // Last hash of each document in this batch, null once deleted. Audit records of a batch are
+    // not written yet, so they are compared with the preceding one of the batch, not the latest
+    // Audit record
+    final Map<DocumentKey, String> batchHashes = new HashMap<>();
+    for (final AuditEvent auditEvent : auditEvents) {
+      final DocumentKey key = DocumentKey.of(auditEvent);
+      if (auditEvent.getType() == AuditEvent.Type.DELETED) {
+        this.hashes.invalidate(key);
+        batchHashes.put(key, null);
+        deduplicated.add(auditEvent);
+        continue;
+      }
+      final String versionProperty =
+          this.auditMetaData.get(auditEvent.getCollectionName()).versionProperty();
+      final Long version = version(auditEvent.getSource(), versionProperty);
+      final String hash = hash(auditEvent.getSource(), versionProperty);
+      final DocumentHash previous = version != null ? this.hashes.getIfPresent(key) : null;
+      if (version != null) {
+        this.hashes.put(key, new DocumentHash(hash, version));
+      }
+
+      final boolean duplicate =
+          auditEvent.getType() == AuditEvent.Type.UPDATED
+              && hash.equals(
+                  batchHashes.containsKey(key)
+                      ? batchHashes.get(key)
+                      : this.previousHash(auditCollectionName, auditEvent, previous, version));
+      batchHashes.put(key, hash);
+      if (duplicate) {
+        this.meterRegistry
+            .counter("mongodb.audit.duplicates", "collection", auditEvent.getCollectionName())
+            .increment();
+        if (this.deduplicationProperties.getMode()
+            == MongoAuditProperties.DuplicateHandling.SKIP) {
+          continue;
+        }
+        deduplicated.add(auditEvent.withContentHash(hash).withDuplicate(true));
+      } else {
+        deduplicated.add(auditEvent.withContentHash(hash));
+      }
+    }
+    return deduplicated;
+  }
+
+  // Audit records not persisted must not be compared against
+  void invalidate(final List<AuditEvent> auditEvents) {
+    if (this.isEnabled()) {
+      auditEvents.forEach(auditEvent -> this.hashes.invalidate(DocumentKey.of(auditEvent)));
+    }
+  }
+
+  private String previousHash(
+      final String auditCollectionName,
+      final AuditEvent auditEvent,
+      final DocumentHash previous,
+      final Long version) {
+    // Other application instances may have changed the document since, unless the version
+    // directly follows the cached one
+    if (previous != null && version != null && previous.version() + 1 == version) {
+      return previous.hash();
+    }
+    final Query latestRevision =
+        new Query(
+                Criteria.where("collectionName")
+                    .is(auditEvent.getCollectionName())
+                    .and("source._id")
+                    .is(auditEvent.getSource().get("_id")))
+            // Latest by datetime, revisions reserved in blocks by instances do not follow time
+            .with(Sort.by(Sort.Direction.DESC, "datetime", "_id"))
+            .limit(1);
+    latestRevision.fields().include("contentHash");
+    final Document latest =
+        this.mongoOperations.findOne(latestRevision, Document.class, auditCollectionName);
+    return latest != null ? latest.getString("contentHash") : null;
+  }
+
+  private static Long version(final Document source, final String versionProperty) {
+    return versionProperty != null && source.get(versionProperty) instanceof Number version
+        ? version.longValue()
+        : null;
+  }
+
+  // Hash of the BSON encoding, stable as the mapping converter writes fields in a fixed order
+  private static String hash(final Document source, final String versionProperty) {
+    final Document content;
+    if (versionProperty != null && source.containsKey(versionProperty)) {
+      content = new Document(source);
+      content.remove(versionProperty);
+    } else {
+      content = source;
+    }
+    final ByteBuffer bson = new RawBsonDocument(content, DOCUMENT_CODEC).getByteBuffer().asNIO();
+    return Hashing.murmur3_128().hashBytes(bson).toString();
+  }
+
+  private record DocumentKey(String collectionName, Object documentId) {
+
+    private static DocumentKey of(final AuditEvent auditEvent) {
+      return new DocumentKey(auditEvent.getCollectionName(), auditEvent.getSource().get("_id"));
+    }
+  }
+
+  private record DocumentHash(String hash, long version) {}
+}
@@ -0,0 +1,86 @@
+package com.ksoot.mongodb;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.List;
+import org.bson.Document;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Delta encodes Audit records of Source collections audited with {@link Auditable.Storage#DELTA}.
+ * The last audited state of recently changed documents is kept in a bounded cache, so the diff is
+ * computed without reading previous revision from Audit collection. A full snapshot (keyframe) is
+ * written on creation, on cache miss and every {@code keyframe-interval} revisions of a document,
+ * which also bounds the number of reads required to rebuild a snapshot.
+ *
+ * <p>Each delta refers to the revision it is computed against, so deltas remain correct even if
+ * other application instances audit the same document in between.
+ *
+ * @author Rajveer Singh
+ */
+@Component
+@ConditionalOnProperty(
+    prefix = "application.mongodb.auditing",
+    name = "enabled",
+    havingValue = "true")
+class AuditDeltaEncoder {
+
+  private final MongoAuditProperties.Auditing.Delta deltaProperties;
+
+  private final AuditMetaData auditMetaData;
+
+  private final Cache<DocumentKey, DocumentState> states;
+
+  AuditDeltaEncoder(
+      final MongoAuditProperties mongoAuditProperties, final AuditMetaData auditMetaData) {
+    this.deltaProperties = mongoAuditProperties.getAuditing().getDelta();
+    this.auditMetaData = auditMetaData;
+    this.states =
+        CacheBuilder.newBuilder().maximumSize(this.deltaProperties.getCacheSize()).build();
+  }
+
+  // Expects Audit records with revisions allocated, in order of revisions
+  List<AuditEvent> encode(final List<AuditEvent> auditEvents) {
+    return auditEvents.stream().map(this::encode).toList();
+  }
+
+  private AuditEvent encode(final AuditEvent auditEvent) {
+    if (this.auditMetaData.get(auditEvent.getCollectionName()).storage()
+        != Auditable.Storage.DELTA) {
+      return auditEvent;
+    }
+    final DocumentKey key = DocumentKey.of(auditEvent);
+    if (auditEvent.getType() == AuditEvent.Type.DELETED) {
+      this.states.invalidate(key);
+      return auditEvent;
+    }
+
+    final DocumentState previous = this.states.getIfPresent(key);
+    if (previous == null
+        || auditEvent.getType() == AuditEvent.Type.CREATED
+        || previous.deltas() + 1 >= this.deltaProperties.getKeyframeInterval()) {
+      this.states.put(key, new DocumentState(auditEvent.getRevision(), auditEvent.getSource(), 0));
+      return auditEvent;
+    }
+    this.states.put(
+        key,
+        new DocumentState(auditEvent.getRevision(), auditEvent.getSource(), previous.deltas() + 1));
+    return auditEvent.asDelta(
+        previous.revision(), DocumentDiff.diff(previous.source(), auditEvent.getSource()));
+  }
+
+  // Audit records not persisted must not be used as base of later deltas
+  void invalidate(final List<AuditEvent> auditEvents) {
+    auditEvents.forEach(auditEvent -> this.states.invalidate(DocumentKey.of(auditEvent)));
+  }
+
+  private record DocumentKey(String collectionName, Object documentId) {
+
+    private static DocumentKey of(final AuditEvent auditEvent) {
+      return new DocumentKey(auditEvent.getCollectionName(), auditEvent.getSource().get("_id"));
+    }
+  }
+
+  private record DocumentState(Long revision, Document source, int deltas) {}
+}
@@ -1,5 +1,7 @@
 package com.ksoot.mongodb;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.ksoot.common.DateTimeUtils;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotEmpty;
@@ -8,11 +10,13 @@ import jakarta.validation.constraints.PastOrPresent;
 import jakarta.validation.constraints.Positive;
 import java.time.Instant;
 import java.time.OffsetDateTime;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.With;
 import org.bson.Document;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.Immutable;
@@ -22,13 +26,14 @@ import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
 import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
 
 @Getter
-@AllArgsConstructor(access = AccessLevel.PRIVATE, onConstructor = @__(@PersistenceCreator))
+@AllArgsConstructor(access = AccessLevel.PACKAGE, onConstructor = @__(@PersistenceCreator))
 @Valid
 @Immutable
 public class AuditEvent {
 
   @Id
   @Field(name = "_id")
+  @With(AccessLevel.PACKAGE)
   private String id;
 
   @NotNull
@@ -43,6 +48,7 @@ public class AuditEvent {
   @NotNull
   @Positive
   @Field(name = "revision")
+  @With(AccessLevel.PACKAGE)
   private Long revision;
 
   @NotNull
@@ -55,8 +61,35 @@ public class AuditEvent {
 
   @NotNull
   @Field(name = "source")
+  @With(AccessLevel.PACKAGE)
   private Document source;
 
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  @Field(name = "baseRevision")
+  private Long baseRevision;
+
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  @Field(name = "delta")
+  private List<Document> delta;
+
+  @JsonIgnore
+  @Field(name = "compression")
+  private Auditable.Compression compression;
+
+  @JsonIgnore
+  @Field(name = "compressedSource")
+  private byte[] compressedSource;
+
+  @JsonIgnore
+  @Field(name = "contentHash")
+  @With(AccessLevel.PACKAGE)
+  private String contentHash;
+
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  @Field(name = "duplicate")
+  @With(AccessLevel.PACKAGE)
+  private Boolean duplicate;
+
   public static AuditEvent of(
       final Type type,
       final Long timestamp,
@@ -64,14 +97,31 @@ public class AuditEvent {
       final String collectionName,
       final Document source,
       final String auditUserName) {
+    return of(null, type, timestamp, revision, collectionName, source, auditUserName);
+  }
+
+  static AuditEvent of(
+      final String id,
+      final Type type,
+      final Long timestamp,
+      final Long revision,
+      final String collectionName,
+      final Document source,
+      final String auditUserName) {
     return new AuditEvent(
-        null,
+        id,
         Instant.ofEpochMilli(timestamp).atOffset(DateTimeUtils.SYSTEM_OFFSET_ID),
         auditUserName,
         revision,
         type,
         collectionName,
-        source);
+        source,
+        null,
+        null,
+        null,
+        null,
+        null,
+        null);
   }
 
   public static AuditEvent ofSaveEvent(
@@ -109,6 +159,85 @@ public class AuditEvent {
         auditUserName);
   }
 
+  // Delta record keeps only _id of Source document, with the changes since baseRevision in delta
+  AuditEvent asDelta(final Long baseRevision, final List<Document> delta) {
+    return new AuditEvent(
+        this.id,
+        this.datetime,
+        this.actor,
+        this.revision,
+        this.type,
+        this.collectionName,
+        new Document("_id", this.source.get("_id")),
+        baseRevision,
+        delta,
+        null,
+        null,
+        this.contentHash,
+        this.duplicate);
+  }
+
+  // Compressed record keeps only _id of Source document, with the compressed BSON snapshot
+  AuditEvent asCompressed(final Auditable.Compression compression, final byte[] compressedSource) {
+    return new AuditEvent(
+        this.id,
+        this.datetime,
+        this.actor,
+        this.revision,
+        this.type,
+        this.collectionName,
+        new Document("_id", this.source.get("_id")),
+        this.baseRevision,
+        this.delta,
+        compression,
+        compressedSource,
+        this.contentHash,
+        this.duplicate);
+  }
+
+  AuditEvent decompressed(final Document source) {
+    return new AuditEvent(
+        this.id,
+        this.datetime,
+        this.actor,
+        this.revision,
+        this.type,
+        this.collectionName,
+        source,
+        this.baseRevision,
+        this.delta,
+        null,
+        null,
+        this.contentHash,
+        this.duplicate);
+  }
+
+  AuditEvent withSnapshot(final Document snapshot) {
+    return new AuditEvent(
+        this.id,
+        this.datetime,
+        this.actor,
+        this.revision,
+        this.type,
+        this.collectionName,
+        snapshot,
+        null,
+        null,
+        null,
+        null,
+        this.contentHash,
+        this.duplicate);
+  }
+
+  public boolean hasDelta() {
+    return Objects.nonNull(this.delta);
+  }
+
+  @JsonIgnore
+  public boolean isCompressed() {
+    return Objects.nonNull(this.compressedSource);
+  }
+
   public enum Type {
     CREATED,
     UPDATED,
@@ -0,0 +1,205 @@
+package com.ksoot.mongodb;
+
+import com.ksoot.common.DateTimeUtils;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import org.bson.BsonBinary;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.RawBsonDocumentCodec;
+import org.bson.codecs.configuration.CodecProvider;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.types.ObjectId;
+
+/**
+ * Hand written {@link Codec} for {@link AuditEvent}, used to write and read Audit records through
+ * the driver without the reflective mapping of {@code MappingMongoConverter}. Fields are written in
+ * the same layout as mapped by Spring Data, except {@code _class}, which is not written and
+ * skipped on read, so Audit records written either way are interchangeable.
+ *
+ * <p>Snapshots are read as raw BSON into a {@link LazyDocument}, decoded only if accessed, and a
+ * snapshot not yet decoded is written back as raw BSON.
+ *
+ * @author Rajveer Singh
+ */
+final class AuditEventCodec implements Codec<AuditEvent> {
+
+  private final Codec<Document> documentCodec;
+
+  private final RawBsonDocumentCodec rawBsonDocumentCodec = new RawBsonDocumentCodec();
+
+  AuditEventCodec(final CodecRegistry codecRegistry) {
+    this.documentCodec = codecRegistry.get(Document.class);
+  }
+
+  @Override
+  public void encode(
+      final BsonWriter writer, final AuditEvent auditEvent, final EncoderContext encoderContext) {
+    writer.writeStartDocument();
+    writer.writeName("_id");
+    if (auditEvent.getId() == null) {
+      writer.writeObjectId(new ObjectId());
+    } else if (ObjectId.isValid(auditEvent.getId())) {
+      writer.writeObjectId(new ObjectId(auditEvent.getId()));
+    } else {
+      writer.writeString(auditEvent.getId());
+    }
+    if (auditEvent.getDatetime() != null) {
+      writer.writeDateTime("datetime", auditEvent.getDatetime().toInstant().toEpochMilli());
+    }
+    if (auditEvent.getActor() != null) {
+      writer.writeString("actor", auditEvent.getActor());
+    }
+    if (auditEvent.getRevision() != null) {
+      writer.writeInt64("revision", auditEvent.getRevision());
+    }
+    if (auditEvent.getType() != null) {
+      writer.writeString("type", auditEvent.getType().name());
+    }
+    if (auditEvent.getCollectionName() != null) {
+      writer.writeString("collectionName", auditEvent.getCollectionName());
+    }
+    if (auditEvent.getSource() != null) {
+      writer.writeName("source");
+      this.encodeDocument(writer, auditEvent.getSource(), encoderContext);
+    }
+    if (auditEvent.getBaseRevision() != null) {
+      writer.writeInt64("baseRevision", auditEvent.getBaseRevision());
+    }
+    if (auditEvent.getDelta() != null) {
+      writer.writeStartArray("delta");
+      for (final Document change : auditEvent.getDelta()) {
+        this.encodeDocument(writer, change, encoderContext);
+      }
+      writer.writeEndArray();
+    }
+    if (auditEvent.getCompression() != null) {
+      writer.writeString("compression", auditEvent.getCompression().name());
+    }
+    if (auditEvent.getCompressedSource() != null) {
+      writer.writeBinaryData("compressedSource", new BsonBinary(auditEvent.getCompressedSource()));
+    }
+    if (auditEvent.getContentHash() != null) {
+      writer.writeString("contentHash", auditEvent.getContentHash());
+    }
+    if (auditEvent.getDuplicate() != null) {
+      writer.writeBoolean("duplicate", auditEvent.getDuplicate());
+    }
+    writer.writeEndDocument();
+  }
+
+  // Snapshots read and not accessed since are piped through as raw BSON
+  private void encodeDocument(
+      final BsonWriter writer, final Document document, final EncoderContext encoderContext) {
+    final RawBsonDocument raw =
+        document instanceof LazyDocument lazyDocument ? lazyDocument.raw() : null;
+    if (raw != null) {
+      encoderContext.encodeWithChildContext(this.rawBsonDocumentCodec, writer, raw);
+    } else {
+      encoderContext.encodeWithChildContext(this.documentCodec, writer, document);
+    }
+  }
+
+  @Override
+  public AuditEvent decode(final BsonReader reader, final DecoderContext decoderContext) {
+    String id = null;
+    OffsetDateTime datetime = null;
+    String actor = null;
+    Long revision = null;
+    AuditEvent.Type type = null;
+    String collectionName = null;
+    Document source = null;
+    Long baseRevision = null;
+    List<Document> delta = null;
+    Auditable.Compression compression = null;
+    byte[] compressedSource = null;
+    String contentHash = null;
+    Boolean duplicate = null;
+
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      final String name = reader.readName();
+      if (reader.getCurrentBsonType() == BsonType.NULL) {
+        reader.readNull();
+        continue;
+      }
+      switch (name) {
+        case "_id" -> id =
+            reader.getCurrentBsonType() == BsonType.OBJECT_ID
+                ? reader.readObjectId().toHexString()
+                : reader.readString();
+        case "datetime" -> datetime =
+            OffsetDateTime.ofInstant(
+                Instant.ofEpochMilli(reader.readDateTime()), DateTimeUtils.SYSTEM_ZONE_ID);
+        case "actor" -> actor = reader.readString();
+        case "revision" -> revision = readLong(reader);
+        case "type" -> type = AuditEvent.Type.valueOf(reader.readString());
+        case "collectionName" -> collectionName = reader.readString();
+        case "source" -> source =
+            new LazyDocument(this.rawBsonDocumentCodec.decode(reader, decoderContext));
+        case "baseRevision" -> baseRevision = readLong(reader);
+        case "delta" -> {
+          delta = new ArrayList<>();
+          reader.readStartArray();
+          while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            delta.add(decoderContext.decodeWithChildContext(this.documentCodec, reader));
+          }
+          reader.readEndArray();
+        }
+        case "compression" -> compression = Auditable.Compression.valueOf(reader.readString());
+        case "compressedSource" -> compressedSource = reader.readBinaryData().getData();
+        case "contentHash" -> contentHash = reader.readString();
+        case "duplicate" -> duplicate = reader.readBoolean();
+        // _class written by MappingMongoConverter and any unknown fields
+        default -> reader.skipValue();
+      }
+    }
+    reader.readEndDocument();
+
+    return new AuditEvent(
+        id,
+        datetime,
+        actor,
+        revision,
+        type,
+        collectionName,
+        source,
+        baseRevision,
+        delta,
+        compression,
+        compressedSource,
+        contentHash,
+        duplicate);
+  }
+
+  private static Long readLong(final BsonReader reader) {
+    return switch (reader.getCurrentBsonType()) {
+      case INT32 -> (long) reader.readInt32();
+      case DOUBLE -> (long) reader.readDouble();
+      default -> reader.readInt64();
+    };
+  }
+
+  @Override
+  public Class<AuditEvent> getEncoderClass() {
+    return AuditEvent.class;
+  }
+
+  // Registered in the client CodecRegistry, resolves Document codec from the full registry
+  static final class Provider implements CodecProvider {
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Codec<T> get(final Class<T> clazz, final CodecRegistry registry) {
+      return clazz == AuditEvent.class ? (Codec<T>) new AuditEventCodec(registry) : null;
+    }
+  }
+}
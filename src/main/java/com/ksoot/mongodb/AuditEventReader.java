@@ -0,0 +1,119 @@
+package com.ksoot.mongodb;
+
+import com.google.common.collect.Streams;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.CountOptions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reads Audit records decoded by {@link AuditEventCodec}, snapshots are kept as raw BSON until
+ * accessed. Queries are mapped by {@link QueryMapper} same as for {@link MongoOperations}, only
+ * filter, sort, skip and limit of the {@link Query} are applied.
+ *
+ * @author Rajveer Singh
+ */
+@Component
+public class AuditEventReader {
+
+  private final MongoOperations mongoOperations;
+
+  private final QueryMapper queryMapper;
+
+  private final MongoPersistentEntity<?> entity;
+
+  AuditEventReader(final MongoOperations mongoOperations) {
+    this.mongoOperations = mongoOperations;
+    this.queryMapper = new QueryMapper(mongoOperations.getConverter());
+    this.entity =
+        mongoOperations.getConverter().getMappingContext().getPersistentEntity(AuditEvent.class);
+  }
+
+  public List<AuditEvent> find(final Query query, final String auditCollectionName) {
+    return this.mongoOperations.execute(
+        auditCollectionName, collection -> this.find(collection, query));
+  }
+
+  /**
+   * Streams Audit records through a server cursor, fetched in batches as the stream is consumed, so
+   * memory stays bounded irrespective of the number of matching Audit records. The stream must be
+   * closed to release the cursor.
+   *
+   * @param query query with filter and sort, skip and limit if any
+   * @param auditCollectionName Audit collection name
+   * @return matching Audit records
+   */
+  public Stream<AuditEvent> stream(final Query query, final String auditCollectionName) {
+    final MongoCursor<AuditEvent> cursor =
+        this.mongoOperations.execute(
+            auditCollectionName, collection -> this.iterable(collection, query).cursor());
+    return Streams.stream(cursor).onClose(cursor::close);
+  }
+
+  /**
+   * Finds a page of Audit records along with the number of matching Audit records, up to given
+   * count limit.
+   *
+   * <p>Matching Audit records are counted by {@code countDocuments} with the count limit, which
+   * counts on the index without fetching the Audit records. Only the Audit records of the page are
+   * fetched, by a separate find.
+   *
+   * @param query query with filter, sort, skip and limit of the page
+   * @param auditCollectionName Audit collection name
+   * @param countLimit maximum number of Audit records to count, all if zero
+   * @return page of Audit records and the number of matching Audit records, up to countLimit
+   */
+  public Result findWithCount(
+      final Query query, final String auditCollectionName, final int countLimit) {
+    return this.mongoOperations.execute(
+        auditCollectionName,
+        collection ->
+            new Result(
+                this.find(collection, query),
+                collection.countDocuments(
+                    this.filter(query), new CountOptions().limit(countLimit))));
+  }
+
+  private List<AuditEvent> find(final MongoCollection<Document> collection, final Query query) {
+    return this.iterable(collection, query).into(new ArrayList<>());
+  }
+
+  private FindIterable<AuditEvent> iterable(
+      final MongoCollection<Document> collection, final Query query) {
+    FindIterable<AuditEvent> auditEvents =
+        collection
+            .withDocumentClass(AuditEvent.class)
+            .find(this.filter(query))
+            .sort(this.sort(query));
+    if (query.getSkip() > 0) {
+      auditEvents = auditEvents.skip(Math.toIntExact(query.getSkip()));
+    }
+    if (query.getLimit() > 0) {
+      auditEvents = auditEvents.limit(query.getLimit());
+    }
+    return auditEvents;
+  }
+
+  private Document filter(final Query query) {
+    return this.queryMapper.getMappedObject(query.getQueryObject(), this.entity);
+  }
+
+  private Document sort(final Query query) {
+    return this.queryMapper.getMappedSort(query.getSortObject(), this.entity);
+  }
+
+  /**
+   * @param auditEvents Audit records of the page
+   * @param total number of matching Audit records, up to the count limit
+   */
+  public record Result(List<AuditEvent> auditEvents, long total) {}
+}
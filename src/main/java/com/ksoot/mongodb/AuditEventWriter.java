@@ -0,0 +1,282 @@
+package com.ksoot.mongodb;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Writes Audit records in batches. Revisions for a batch are allocated in one block per Source
+ * collection and the records of each Audit collection are inserted with a single {@code
+ * insertMany}, encoded by {@link AuditEventCodec} rather than mapped by {@code
+ * MappingMongoConverter}.
+ *
+ * <p>Snapshots are projected as per {@link Auditable#includes()}, {@link Auditable#excludes()}
+ * and {@link AuditIgnore} before revisions are allocated and deltas computed.
+ *
+ * <p>Within a Transaction, Audit records are buffered in a resource bound to the Transaction
+ * through {@link TransactionSynchronizationManager} and written just before commit, so a
+ * Transaction costs roughly two Audit round trips irrespective of the number of documents it
+ * changes.
+ *
+ * @author Rajveer Singh
+ */
+@Component
+@ConditionalOnProperty(
+    prefix = "application.mongodb.auditing",
+    name = "enabled",
+    havingValue = "true")
+@Slf4j
+@RequiredArgsConstructor
+class AuditEventWriter {
+
+  private final MongoOperations mongoOperations;
+
+  private final AuditMetaData auditMetaData;
+
+  private final AuditRevisionSequence auditRevisionSequence;
+
+  private final AuditDeltaEncoder auditDeltaEncoder;
+
+  private final AuditSourceCompressor auditSourceCompressor;
+
+  private final AuditRetryPolicy auditRetryPolicy;
+
+  private final AuditDeduplicator auditDeduplicator;
+
+  // Buffers the Audit record in current Transaction, to be written before Transaction commit
+  void writeOnCommit(final AuditEvent auditEvent) {
+    TransactionalAuditBuffer buffer =
+        (TransactionalAuditBuffer) TransactionSynchronizationManager.getResource(this);
+    if (buffer == null) {
+      buffer = new TransactionalAuditBuffer(this);
+      TransactionSynchronizationManager.bindResource(this, buffer);
+      TransactionSynchronizationManager.registerSynchronization(buffer);
+    }
+    buffer.add(auditEvent);
+  }
+
+  void write(final List<AuditEvent> auditEvents) {
+    this.groupByAuditCollection(auditEvents)
+        .forEach(
+            (auditCollectionName, events) -> {
+              try {
+                final List<AuditEvent> prepared = this.prepare(auditCollectionName, events);
+                if (!prepared.isEmpty()) {
+                  this.insert(auditCollectionName, prepared, true);
+                }
+              } catch (final RuntimeException e) {
+                this.invalidate(events);
+                throw e;
+              }
+            });
+  }
+
+  // Unordered bulk insert, a failing Audit record does not prevent others from being written
+  void bulkWrite(final List<AuditEvent> auditEvents) {
+    this.groupByAuditCollection(auditEvents)
+        .forEach(
+            (auditCollectionName, events) -> {
+              try {
+                final List<AuditEvent> prepared = this.prepare(auditCollectionName, events);
+                if (!prepared.isEmpty()) {
+                  this.insert(auditCollectionName, prepared, false);
+                }
+              } catch (final RuntimeException e) {
+                this.invalidate(events);
+                throw e;
+              }
+            });
+  }
+
+  // Audit records written by an earlier, partially failed, write or replay are skipped
+  List<AuditEvent> notWritten(final List<AuditEvent> auditEvents) {
+    final Set<Object> writtenIds = new HashSet<>();
+    this.groupByAuditCollection(auditEvents)
+        .forEach(
+            (auditCollectionName, events) -> {
+              final Query written =
+                  new Query(
+                      Criteria.where("_id")
+                          .in(events.stream().map(event -> storedId(event.getId())).toList()));
+              written.fields().include("_id");
+              this.mongoOperations.find(written, Document.class, auditCollectionName).stream()
+                  .map(document -> document.get("_id").toString())
+                  .forEach(writtenIds::add);
+            });
+    return auditEvents.stream().filter(event -> !writtenIds.contains(event.getId())).toList();
+  }
+
+  // Id as written by AuditEventCodec, e.g. change event ids are resume token strings
+  private static Object storedId(final String id) {
+    return ObjectId.isValid(id) ? new ObjectId(id) : id;
+  }
+
+  // Encoded by AuditEventCodec, executed through MongoOperations to bind to the current session
+  // and translate exceptions
+  private void insert(
+      final String auditCollectionName, final List<AuditEvent> auditEvents, final boolean ordered) {
+    this.mongoOperations.execute(
+        auditCollectionName,
+        collection -> {
+          final MongoCollection<AuditEvent> auditCollection =
+              collection.withDocumentClass(AuditEvent.class);
+          if (ordered && auditEvents.size() == 1) {
+            auditCollection.insertOne(auditEvents.get(0));
+            return null;
+          }
+          try {
+            auditCollection.insertMany(auditEvents, new InsertManyOptions().ordered(ordered));
+          } catch (final MongoBulkWriteException e) {
+            if (ordered) {
+              throw e;
+            }
+            throw new BulkOperationException(e.getMessage(), e);
+          }
+          return null;
+        });
+  }
+
+  // Called if the Transaction, in which the Audit records were written, is rolled back
+  void discard(final List<AuditEvent> auditEvents) {
+    this.invalidate(auditEvents);
+  }
+
+  private void invalidate(final List<AuditEvent> auditEvents) {
+    this.auditDeltaEncoder.invalidate(auditEvents);
+    this.auditDeduplicator.invalidate(auditEvents);
+  }
+
+  private List<AuditEvent> prepare(
+      final String auditCollectionName, final List<AuditEvent> auditEvents) {
+    return this.auditSourceCompressor.compress(
+        this.auditDeltaEncoder.encode(
+            this.allocateRevisions(
+                auditCollectionName,
+                this.auditDeduplicator.deduplicate(
+                    auditCollectionName, this.project(auditEvents)))));
+  }
+
+  private List<AuditEvent> project(final List<AuditEvent> auditEvents) {
+    return auditEvents.stream()
+        .map(
+            auditEvent -> {
+              final AuditProjection projection =
+                  this.auditMetaData.get(auditEvent.getCollectionName()).projection();
+              return projection.isIdentity()
+                  ? auditEvent
+                  : auditEvent.withSource(projection.apply(auditEvent.getSource()));
+            })
+        .toList();
+  }
+
+  private Map<String, List<AuditEvent>> groupByAuditCollection(
+      final List<AuditEvent> auditEvents) {
+    final Map<String, List<AuditEvent>> auditEventsByAuditCollection = new LinkedHashMap<>();
+    for (final AuditEvent auditEvent : auditEvents) {
+      auditEventsByAuditCollection
+          .computeIfAbsent(
+              this.auditMetaData.get(auditEvent.getCollectionName()).auditCollectionName(),
+              auditCollectionName -> new ArrayList<>())
+          .add(auditEvent);
+    }
+    return auditEventsByAuditCollection;
+  }
+
+  // Allocates revisions preserving the order of Audit records
+  private List<AuditEvent> allocateRevisions(
+      final String auditCollectionName, final List<AuditEvent> auditEvents) {
+    final Map<RevisionKey, Integer> counts = new LinkedHashMap<>();
+    auditEvents.forEach(auditEvent -> counts.merge(this.revisionKey(auditEvent), 1, Integer::sum));
+
+    final Map<RevisionKey, Long> nextRevisions = new HashMap<>();
+    counts.forEach(
+        (key, count) ->
+            nextRevisions.put(
+                key,
+                key.documentId() != null
+                    ? this.auditRevisionSequence.nextOfDocument(
+                        auditCollectionName, key.collectionName(), key.documentId())
+                    : this.auditRevisionSequence.reserve(
+                        auditCollectionName, key.collectionName(), count)));
+
+    return auditEvents.stream()
+        .map(
+            auditEvent ->
+                auditEvent.withRevision(
+                    nextRevisions.merge(this.revisionKey(auditEvent), 1L, Long::sum) - 1))
+        .toList();
+  }
+
+  private RevisionKey revisionKey(final AuditEvent auditEvent) {
+    return this.auditMetaData.get(auditEvent.getCollectionName()).revisionScope()
+            == Auditable.RevisionScope.DOCUMENT
+        ? new RevisionKey(auditEvent.getCollectionName(), auditEvent.getSource().get("_id"))
+        : new RevisionKey(auditEvent.getCollectionName(), null);
+  }
+
+  private record RevisionKey(String collectionName, Object documentId) {}
+
+  private static final class TransactionalAuditBuffer implements TransactionSynchronization {
+
+    private final AuditEventWriter auditEventWriter;
+
+    private final List<AuditEvent> auditEvents = new ArrayList<>();
+
+    private final List<AuditEvent> writtenAuditEvents = new ArrayList<>();
+
+    private TransactionalAuditBuffer(final AuditEventWriter auditEventWriter) {
+      this.auditEventWriter = auditEventWriter;
+    }
+
+    private void add(final AuditEvent auditEvent) {
+      this.auditEvents.add(auditEvent);
+    }
+
+    @Override
+    public void beforeCommit(final boolean readOnly) {
+      if (!this.auditEvents.isEmpty()) {
+        log.debug("Writing {} buffered Audit records before commit", this.auditEvents.size());
+        try {
+          this.auditEventWriter.write(this.auditEvents);
+        } catch (final DuplicateKeyException exception) {
+          // Not retried, the Transaction is aborted on conflict
+          this.auditEvents.stream()
+              .map(AuditEvent::getCollectionName)
+              .distinct()
+              .forEach(this.auditEventWriter.auditRetryPolicy::conflict);
+          throw exception;
+        }
+        this.writtenAuditEvents.addAll(this.auditEvents);
+        this.auditEvents.clear();
+      }
+    }
+
+    @Override
+    public void afterCompletion(final int status) {
+      TransactionSynchronizationManager.unbindResourceIfPossible(this.auditEventWriter);
+      if (status != STATUS_COMMITTED && !this.writtenAuditEvents.isEmpty()) {
+        this.auditEventWriter.discard(this.writtenAuditEvents);
+      }
+    }
+  }
+}
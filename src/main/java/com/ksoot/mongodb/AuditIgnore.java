@@ -0,0 +1,16 @@
+package com.ksoot.mongodb;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Excludes the annotated field of an {@link Auditable} entity, or of a type embedded in it, from
+ * the snapshots stored in Audit records.
+ *
+ * @author Rajveer Singh
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD})
+public @interface AuditIgnore {}
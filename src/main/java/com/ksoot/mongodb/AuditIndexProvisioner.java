@@ -0,0 +1,251 @@
+package com.ksoot.mongodb;
+
+import com.mongodb.MongoCommandException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.stereotype.Component;
+
+/**
+ * Provisions the indexes of Audit collections, matching the revision scope and the query shapes of
+ * the Audit history API. Queries always filter on {@code collectionName} first, as Source
+ * collections may share an Audit collection, then on {@code type} or {@code actor}, with a {@code
+ * datetime} range or order, hence the compound indexes:
+ *
+ * <ul>
+ *   <li>{@code (collectionName, datetime, _id)}, also backing keyset pagination on {@code
+ *       (datetime, _id)}
+ *   <li>{@code (collectionName, revision)}, unique and backing keyset pagination on {@code
+ *       revision} alone, if revisions are scoped to Source collections. Not unique on time-series
+ *       Audit collections
+ *   <li>{@code (collectionName, revision, _id)} instead, backing keyset pagination on {@code
+ *       (revision, _id)}, if revisions are scoped to documents
+ *   <li>{@code (collectionName, type, datetime)}
+ *   <li>{@code (collectionName, actor, datetime)}
+ *   <li>{@code (collectionName, source._id, datetime, _id)}, backing the timeline of a document
+ *       paginated by {@code (datetime, _id)} and the lookup of the latest Audit record of a
+ *       document by deduplication
+ *   <li>{@code (collectionName, source._id, revision)}, unique if revisions are scoped to
+ *       documents
+ * </ul>
+ *
+ * <p>Indexes are reconciled on every startup, including for existing Audit collections. An index
+ * whose key or uniqueness differs from its definition is dropped and recreated, and indexes
+ * superseded by the compound indexes are dropped. {@code idx_datetime} is kept, the archiver reads
+ * cold Audit records across Source collections by {@code datetime}. Indexes of an Audit collection
+ * are provisioned once, even if it is shared by multiple Source collections, and indexes dropped
+ * concurrently by another application instance are skipped.
+ *
+ * @author Rajveer Singh
+ */
+@Component
+@ConditionalOnProperty(
+    prefix = "application.mongodb.auditing",
+    name = "enabled",
+    havingValue = "true")
+@Slf4j
+@RequiredArgsConstructor
+class AuditIndexProvisioner {
+
+  private static final String IDX_UNQ_REVISION = "idx_unq_revision";
+
+  private static final String IDX_UNQ_DOCUMENT_REVISION = "idx_unq_doc_revision";
+
+  private static final String IDX_DOCUMENT_REVISION = "idx_doc_revision";
+
+  private static final String IDX_DOCUMENT_DATETIME = "idx_doc_datetime";
+
+  private static final String IDX_REVISION = "idx_revision";
+
+  private static final String IDX_DATETIME = "idx_datetime";
+
+  private static final String IDX_COLLECTION_DATETIME = "idx_coll_datetime";
+
+  private static final String IDX_COLLECTION_TYPE_DATETIME = "idx_coll_type_datetime";
+
+  private static final String IDX_COLLECTION_ACTOR_DATETIME = "idx_coll_actor_datetime";
+
+  private static final String IDX_COLLECTION_REVISION = "idx_coll_revision";
+
+  // Superseded by the compound indexes on collectionName and source._id
+  private static final List<String> LEGACY_INDEXES =
+      List.of("idx_actor", IDX_DOCUMENT_REVISION, IDX_REVISION);
+
+  private static final int INDEX_NOT_FOUND = 27;
+
+  private final MongoOperations mongoOperations;
+
+  private final Set<String> provisioned = ConcurrentHashMap.newKeySet();
+
+  void provision(
+      final String auditCollectionName,
+      final Auditable.RevisionScope revisionScope,
+      final boolean timeSeries) {
+    if (!this.provisioned.add(auditCollectionName)) {
+      return;
+    }
+    try {
+      this.reconcile(auditCollectionName, revisionScope, timeSeries);
+    } catch (final RuntimeException e) {
+      this.provisioned.remove(auditCollectionName);
+      throw e;
+    }
+  }
+
+  private void reconcile(
+      final String auditCollectionName,
+      final Auditable.RevisionScope revisionScope,
+      final boolean timeSeries) {
+    final IndexOperations indexOperations = this.mongoOperations.indexOps(auditCollectionName);
+    final List<Index> indexes = this.indexes(revisionScope, timeSeries);
+    final Map<String, Index> definitions =
+        indexes.stream()
+            .collect(Collectors.toMap(AuditIndexProvisioner::name, Function.identity()));
+    final List<String> obsoleteIndexes = new ArrayList<>(LEGACY_INDEXES);
+    // Indexes of the other revision scope would reject valid revisions of this scope or clash
+    // with its key pattern, the unique revision index supersedes (collectionName, revision, _id)
+    if (!timeSeries) {
+      obsoleteIndexes.addAll(
+          revisionScope == Auditable.RevisionScope.DOCUMENT
+              ? List.of(IDX_UNQ_REVISION)
+              : List.of(IDX_UNQ_DOCUMENT_REVISION, IDX_COLLECTION_REVISION));
+    }
+    for (final IndexInfo indexInfo : indexOperations.getIndexInfo()) {
+      final Index definition = definitions.get(indexInfo.getName());
+      if (obsoleteIndexes.contains(indexInfo.getName())) {
+        log.warn(
+            "Dropping index: "
+                + indexInfo.getName()
+                + " on Audit collection: "
+                + auditCollectionName
+                + ", not applicable to revision scope: "
+                + revisionScope
+                + " or superseded");
+        dropIndex(indexOperations, auditCollectionName, indexInfo.getName());
+      } else if (definition != null && !matches(indexInfo, definition)) {
+        log.warn(
+            "Dropping index: "
+                + indexInfo.getName()
+                + " on Audit collection: "
+                + auditCollectionName
+                + ", to be recreated as per its definition");
+        dropIndex(indexOperations, auditCollectionName, indexInfo.getName());
+      }
+    }
+    indexes.forEach(indexOperations::ensureIndex);
+  }
+
+  private List<Index> indexes(
+      final Auditable.RevisionScope revisionScope, final boolean timeSeries) {
+    final List<Index> indexes = new ArrayList<>();
+    indexes.add(new Index().named(IDX_DATETIME).on("datetime", Sort.Direction.ASC));
+    final Index collectionDatetime =
+        new Index()
+            .named(IDX_COLLECTION_DATETIME)
+            .on("collectionName", Sort.Direction.ASC)
+            .on("datetime", Sort.Direction.ASC);
+    final Index documentDatetime =
+        new Index()
+            .named(IDX_DOCUMENT_DATETIME)
+            .on("collectionName", Sort.Direction.ASC)
+            .on("source._id", Sort.Direction.ASC)
+            .on("datetime", Sort.Direction.ASC);
+    if (!timeSeries) {
+      // Time-series Audit records are not addressed by _id
+      collectionDatetime.on("_id", Sort.Direction.ASC);
+      documentDatetime.on("_id", Sort.Direction.ASC);
+    }
+    indexes.add(collectionDatetime);
+    indexes.add(documentDatetime);
+    indexes.add(
+        new Index()
+            .named(IDX_COLLECTION_TYPE_DATETIME)
+            .on("collectionName", Sort.Direction.ASC)
+            .on("type", Sort.Direction.ASC)
+            .on("datetime", Sort.Direction.ASC));
+    indexes.add(
+        new Index()
+            .named(IDX_COLLECTION_ACTOR_DATETIME)
+            .on("collectionName", Sort.Direction.ASC)
+            .on("actor", Sort.Direction.ASC)
+            .on("datetime", Sort.Direction.ASC));
+
+    if (timeSeries) {
+      // Unique indexes are not supported, revisions allocated from counters are unique anyway
+      indexes.add(
+          new Index()
+              .named(IDX_COLLECTION_REVISION)
+              .on("collectionName", Sort.Direction.ASC)
+              .on("revision", Sort.Direction.ASC));
+    } else if (revisionScope == Auditable.RevisionScope.DOCUMENT) {
+      // Revisions repeat across documents, so keyset pagination breaks ties on _id
+      indexes.add(
+          new Index()
+              .named(IDX_COLLECTION_REVISION)
+              .on("collectionName", Sort.Direction.ASC)
+              .on("revision", Sort.Direction.ASC)
+              .on("_id", Sort.Direction.ASC));
+      indexes.add(
+          new Index()
+              .named(IDX_UNQ_DOCUMENT_REVISION)
+              .on("collectionName", Sort.Direction.ASC)
+              .on("source._id", Sort.Direction.ASC)
+              .on("revision", Sort.Direction.ASC)
+              .unique());
+    } else {
+      indexes.add(
+          new Index()
+              .named(IDX_UNQ_REVISION)
+              .on("collectionName", Sort.Direction.ASC)
+              .on("revision", Sort.Direction.ASC)
+              .unique());
+    }
+    return indexes;
+  }
+
+  // Tolerates the index having been dropped concurrently by another application instance
+  private static void dropIndex(
+      final IndexOperations indexOperations,
+      final String auditCollectionName,
+      final String indexName) {
+    try {
+      indexOperations.dropIndex(indexName);
+    } catch (final DataAccessException e) {
+      if (!(e.getCause() instanceof MongoCommandException exception)
+          || exception.getErrorCode() != INDEX_NOT_FOUND) {
+        throw e;
+      }
+      log.debug(
+          "Index: {} on Audit collection: {} already dropped", indexName, auditCollectionName);
+    }
+  }
+
+  private static String name(final Index index) {
+    return index.getIndexOptions().getString("name");
+  }
+
+  private static boolean matches(final IndexInfo indexInfo, final Index definition) {
+    final Document keys = new Document();
+    for (final IndexField field : indexInfo.getIndexFields()) {
+      keys.append(field.getKey(), field.getDirection() == Sort.Direction.DESC ? -1 : 1);
+    }
+    // Key order matters, unlike to Document equality
+    return List.copyOf(keys.entrySet()).equals(List.copyOf(definition.getIndexKeys().entrySet()))
+        && indexInfo.isUnique() == definition.getIndexOptions().getBoolean("unique", false);
+  }
+}
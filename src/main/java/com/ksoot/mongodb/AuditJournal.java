@@ -0,0 +1,248 @@
+package com.ksoot.mongodb;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Local append only journal of Audit records, made of memory mapped segment files of fixed size.
+ * Each record is stored as {@code [length][crc32][bson]}, a zero length or a checksum mismatch
+ * marks the end of the valid records of a segment, e.g. a record torn by a crash.
+ *
+ * <p>Records are appended to the newest segment and read in order from the oldest segment.
+ * Segments are deleted once all their records are acknowledged, except the segment appended to,
+ * which is reset and reused in place. Unacknowledged records are read
+ * again after a restart, so readers must process records idempotently. Records are safe against
+ * application crashes once appended, as the mapped pages belong to the operating system.
+ *
+ * @author Rajveer Singh
+ */
+@Slf4j
+final class AuditJournal implements Closeable {
+
+  private static final String SEGMENT_PREFIX = "segment-";
+
+  private static final String SEGMENT_SUFFIX = ".journal";
+
+  private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+  private final Path directory;
+
+  private final int segmentSize;
+
+  // Oldest first, the last segment is the one appended to
+  private final Deque<Segment> segments = new ArrayDeque<>();
+
+  private long nextSegmentNumber;
+
+  private int readPosition;
+
+  AuditJournal(final Path directory, final int segmentSize) {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    try {
+      Files.createDirectories(directory);
+      try (Stream<Path> files = Files.list(directory)) {
+        for (final Path path :
+            files
+                .filter(file -> file.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                .filter(file -> file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                .sorted()
+                .toList()) {
+          this.segments.add(Segment.open(path, (int) Files.size(path)));
+          this.nextSegmentNumber = segmentNumber(path) + 1;
+        }
+      }
+      // Existing segments are only read, never appended to, as their tail may be torn
+      this.segments.add(this.newSegment());
+    } catch (final IOException e) {
+      throw new UncheckedIOException("Could not open Audit journal in: " + directory, e);
+    }
+  }
+
+  synchronized void append(final List<byte[]> records) {
+    for (final byte[] record : records) {
+      if (HEADER_SIZE + record.length > this.segmentSize) {
+        throw new IllegalArgumentException(
+            "Audit record of size: "
+                + record.length
+                + " bytes does not fit in Audit journal segment of size: "
+                + this.segmentSize
+                + " bytes");
+      }
+      Segment active = this.segments.getLast();
+      if (active.remaining() < HEADER_SIZE + record.length) {
+        active.buffer.force();
+        active = this.newSegment();
+        this.segments.add(active);
+      }
+      active.append(record);
+    }
+  }
+
+  // Reads next records from the oldest segment with records not yet acknowledged
+  synchronized Batch read(final int maxRecords) {
+    while (true) {
+      final Segment oldest = this.segments.getFirst();
+      final List<byte[]> records = new ArrayList<>();
+      int position = this.readPosition;
+      byte[] record;
+      while (records.size() < maxRecords && (record = oldest.read(position)) != null) {
+        records.add(record);
+        position += HEADER_SIZE + record.length;
+      }
+      if (!records.isEmpty() || oldest == this.segments.getLast()) {
+        return new Batch(oldest, records, position);
+      }
+      this.delete(this.segments.removeFirst());
+      this.readPosition = 0;
+    }
+  }
+
+  synchronized void acknowledge(final Batch batch) {
+    if (this.segments.getFirst() == batch.segment()) {
+      this.readPosition = batch.end();
+      if (this.isEmpty() && batch.segment().writePosition > 0) {
+        // Start over in the same segment, so acknowledged records are not read again after restart
+        batch.segment().reset();
+        this.readPosition = 0;
+      }
+    }
+  }
+
+  synchronized boolean isEmpty() {
+    return this.segments.size() == 1 && this.readPosition == this.segments.getFirst().writePosition;
+  }
+
+  @Override
+  public synchronized void close() {
+    for (final Segment segment : this.segments) {
+      segment.buffer.force();
+      segment.close();
+    }
+  }
+
+  private Segment newSegment() {
+    final Path path =
+        this.directory.resolve(
+            SEGMENT_PREFIX + String.format("%020d", this.nextSegmentNumber++) + SEGMENT_SUFFIX);
+    try {
+      return Segment.open(path, this.segmentSize);
+    } catch (final IOException e) {
+      throw new UncheckedIOException("Could not create Audit journal segment: " + path, e);
+    }
+  }
+
+  private void delete(final Segment segment) {
+    segment.close();
+    try {
+      Files.deleteIfExists(segment.path);
+    } catch (final IOException e) {
+      log.warn("Could not delete replayed Audit journal segment: " + segment.path, e);
+    }
+  }
+
+  private static long segmentNumber(final Path path) {
+    final String fileName = path.getFileName().toString();
+    return Long.parseLong(
+        fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  record Batch(Segment segment, List<byte[]> records, int end) {}
+
+  static final class Segment {
+
+    private final Path path;
+
+    private final FileChannel channel;
+
+    private final MappedByteBuffer buffer;
+
+    private int writePosition;
+
+    private Segment(final Path path, final FileChannel channel, final MappedByteBuffer buffer) {
+      this.path = path;
+      this.channel = channel;
+      this.buffer = buffer;
+      byte[] record;
+      while ((record = this.read(this.writePosition)) != null) {
+        this.writePosition += HEADER_SIZE + record.length;
+      }
+    }
+
+    private static Segment open(final Path path, final int size) throws IOException {
+      final FileChannel channel =
+          FileChannel.open(
+              path,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE);
+      return new Segment(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    }
+
+    private int remaining() {
+      return this.buffer.capacity() - this.writePosition;
+    }
+
+    // Record is written before its length, so a partially written record is never valid. Records
+    // are terminated by a zero length, so records of a reset segment are never read past it
+    private void append(final byte[] record) {
+      final int next = this.writePosition + HEADER_SIZE + record.length;
+      if (next + HEADER_SIZE <= this.buffer.capacity()) {
+        this.buffer.putInt(next, 0);
+      }
+      this.buffer.putInt(this.writePosition + Integer.BYTES, checksum(record));
+      this.buffer.put(this.writePosition + HEADER_SIZE, record);
+      this.buffer.putInt(this.writePosition, record.length);
+      this.writePosition = next;
+    }
+
+    private void reset() {
+      this.buffer.putInt(0, 0);
+      this.writePosition = 0;
+    }
+
+    private byte[] read(final int position) {
+      if (position + HEADER_SIZE > this.buffer.capacity()) {
+        return null;
+      }
+      final int length = this.buffer.getInt(position);
+      if (length <= 0 || position + HEADER_SIZE + length > this.buffer.capacity()) {
+        return null;
+      }
+      final byte[] record = new byte[length];
+      this.buffer.get(position + HEADER_SIZE, record);
+      if (checksum(record) != this.buffer.getInt(position + Integer.BYTES)) {
+        log.warn("Corrupt Audit journal record at: " + position + " in segment: " + this.path);
+        return null;
+      }
+      return record;
+    }
+
+    private void close() {
+      try {
+        this.channel.close();
+      } catch (final IOException e) {
+        log.warn("Could not close Audit journal segment: " + this.path, e);
+      }
+    }
+
+    private static int checksum(final byte[] record) {
+      final CRC32 crc32 = new CRC32();
+      crc32.update(record);
+      return (int) crc32.getValue();
+    }
+  }
+}
@@ -1,46 +1,82 @@
 package com.ksoot.mongodb;
 
+import com.google.common.collect.Maps;
+import java.time.Duration;
 import java.util.Map;
 import java.util.Optional;
-import lombok.AccessLevel;
-import lombok.AllArgsConstructor;
+import java.util.Set;
 import org.springframework.stereotype.Component;
-import org.springframework.util.ConcurrentReferenceHashMap;
 
+/**
+ * Registry of Audit metadata of audited Source collections. Metadata is held in an immutable map,
+ * replaced as a whole when collections are registered, so lookups never lock and registered
+ * collections are never evicted. Callers on the hot path should resolve {@link Metadata} once
+ * per event with {@link #get(String)} and pass it on.
+ *
+ * @author Rajveer Singh
+ */
 @Component
 public class AuditMetaData {
 
-  private final Map<String, Metadata> metadata;
+  private volatile Map<String, Metadata> metadata = Map.of();
 
-  AuditMetaData() {
-    this.metadata = new ConcurrentReferenceHashMap<>();
+  AuditMetaData() {}
+
+  // Atomically publishes given metadata along with already registered metadata, replacing
+  // metadata of already registered collections
+  synchronized void register(final Map<String, Metadata> metadata) {
+    final Map<String, Metadata> registry =
+        Maps.newHashMapWithExpectedSize(this.metadata.size() + metadata.size());
+    registry.putAll(this.metadata);
+    registry.putAll(metadata);
+    this.metadata = Map.copyOf(registry);
   }
 
-  void put(final String collectionName, final Metadata metadata) {
-    this.metadata.put(collectionName, metadata);
+  // Single lookup, null if the collection is not audited
+  Metadata get(final String collectionName) {
+    return collectionName != null ? this.metadata.get(collectionName) : null;
   }
 
   public Optional<String> getAuditCollection(final String collectionName) {
-    return this.metadata.containsKey(collectionName)
-        ? Optional.of(this.metadata.get(collectionName).auditCollectionName)
-        : Optional.empty();
+    return Optional.ofNullable(this.get(collectionName)).map(Metadata::auditCollectionName);
   }
 
   public Optional<String> getVersionProperty(final String collectionName) {
-    return this.metadata.containsKey(collectionName)
-        ? Optional.ofNullable(this.metadata.get(collectionName).versionProperty)
-        : Optional.empty();
+    return Optional.ofNullable(this.get(collectionName)).map(Metadata::versionProperty);
   }
 
-  public boolean isPresent(final String collectionName) {
-    return this.metadata.containsKey(collectionName);
+  public Optional<Auditable.RevisionScope> getRevisionScope(final String collectionName) {
+    return Optional.ofNullable(this.get(collectionName)).map(Metadata::revisionScope);
+  }
+
+  public Optional<Auditable.Storage> getStorage(final String collectionName) {
+    return Optional.ofNullable(this.get(collectionName)).map(Metadata::storage);
+  }
+
+  public Optional<Auditable.Compression> getCompression(final String collectionName) {
+    return Optional.ofNullable(this.get(collectionName)).map(Metadata::compression);
   }
 
-  @AllArgsConstructor(staticName = "of", access = AccessLevel.PACKAGE)
-  static class Metadata {
+  // Retention of time-series Audit collections, empty if Audit records are kept forever
+  public Optional<Duration> getRetention(final String collectionName) {
+    return Optional.ofNullable(this.get(collectionName)).map(Metadata::retention);
+  }
 
-    private String auditCollectionName;
+  public Set<String> getCollectionNames() {
+    return this.metadata.keySet();
+  }
 
-    private String versionProperty;
+  public boolean isPresent(final String collectionName) {
+    return this.get(collectionName) != null;
   }
+
+  record Metadata(
+      String auditCollectionName,
+      String versionProperty,
+      Auditable.RevisionScope revisionScope,
+      Auditable.Storage storage,
+      Auditable.Compression compression,
+      AuditProjection projection,
+      boolean timeSeries,
+      Duration retention) {}
 }
@@ -0,0 +1,176 @@
+package com.ksoot.mongodb;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+import org.bson.Document;
+import org.springframework.data.mapping.PropertyHandler;
+import org.springframework.data.mapping.context.MappingContext;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+
+/**
+ * Projection of Source document snapshots, compiled once per Source collection on startup from
+ * include and exclude lists of dot separated field paths. Paths are matched against the field
+ * names as stored, arrays of documents are projected element wise. {@code _id} is always kept.
+ *
+ * <p>The Source document is never modified, a projected copy is returned sharing the values not
+ * affected by the projection.
+ *
+ * @author Rajveer Singh
+ */
+final class AuditProjection {
+
+  static final AuditProjection IDENTITY = new AuditProjection(null, null);
+
+  private static final String ID = "_id";
+
+  // null if all fields are included
+  private final Node includes;
+
+  // null if no field is excluded
+  private final Node excludes;
+
+  private AuditProjection(final Node includes, final Node excludes) {
+    this.includes = includes;
+    this.excludes = excludes;
+  }
+
+  static AuditProjection of(final Collection<String> includes, final Collection<String> excludes) {
+    if (excludes.stream().anyMatch(ID::equals)) {
+      throw new IllegalArgumentException("'_id' can not be excluded from Audit records");
+    }
+    return includes.isEmpty() && excludes.isEmpty()
+        ? IDENTITY
+        : new AuditProjection(
+            includes.isEmpty() ? null : Node.of(includes),
+            excludes.isEmpty() ? null : Node.of(excludes));
+  }
+
+  // Fields annotated with AuditIgnore are resolved recursively through embedded entities
+  static AuditProjection of(
+      final MongoPersistentEntity<?> entity,
+      final Auditable auditable,
+      final MappingContext<? extends MongoPersistentEntity<?>, MongoPersistentProperty>
+          mappingContext) {
+    final List<String> excludes = new ArrayList<>(List.of(auditable.excludes()));
+    collectIgnoredFields(entity, "", new HashSet<>(), excludes, mappingContext);
+    return of(List.of(auditable.includes()), excludes);
+  }
+
+  private static void collectIgnoredFields(
+      final MongoPersistentEntity<?> entity,
+      final String prefix,
+      final Set<Class<?>> visited,
+      final List<String> excludes,
+      final MappingContext<? extends MongoPersistentEntity<?>, MongoPersistentProperty>
+          mappingContext) {
+    if (!visited.add(entity.getType())) {
+      return;
+    }
+    entity.doWithProperties(
+        (PropertyHandler<MongoPersistentProperty>)
+            property -> {
+              final String path = prefix + property.getFieldName();
+              if (property.isAnnotationPresent(AuditIgnore.class)) {
+                excludes.add(path);
+              } else if (property.isEntity()) {
+                final MongoPersistentEntity<?> embedded =
+                    mappingContext.getPersistentEntity(property);
+                if (embedded != null) {
+                  collectIgnoredFields(embedded, path + ".", visited, excludes, mappingContext);
+                }
+              }
+            });
+    visited.remove(entity.getType());
+  }
+
+  boolean isIdentity() {
+    return this == IDENTITY;
+  }
+
+  Document apply(final Document source) {
+    if (this.isIdentity()) {
+      return source;
+    }
+    final Document included = this.includes != null ? include(source, this.includes, true) : source;
+    return this.excludes != null ? exclude(included, this.excludes) : included;
+  }
+
+  private static Document include(final Document document, final Node node, final boolean root) {
+    final Document projected = new Document();
+    document.forEach(
+        (field, value) -> {
+          final Node child = node.children.get(field);
+          if (root && ID.equals(field)) {
+            projected.put(field, value);
+          } else if (child != null) {
+            projected.put(
+                field,
+                child.isLeaf() ? value : project(value, nested -> include(nested, child, false)));
+          }
+        });
+    return projected;
+  }
+
+  private static Document exclude(final Document document, final Node node) {
+    final Document projected = new Document();
+    document.forEach(
+        (field, value) -> {
+          final Node child = node.children.get(field);
+          if (child == null) {
+            projected.put(field, value);
+          } else if (!child.isLeaf()) {
+            projected.put(field, project(value, nested -> exclude(nested, child)));
+          }
+        });
+    return projected;
+  }
+
+  private static Object project(final Object value, final UnaryOperator<Document> projection) {
+    if (value instanceof Document document) {
+      return projection.apply(document);
+    } else if (value instanceof List<?> list) {
+      return list.stream()
+          .map(
+              element ->
+                  element instanceof Document document ? projection.apply(document) : element)
+          .toList();
+    } else {
+      return value;
+    }
+  }
+
+  // Tree of field paths, a leaf matches the field with all its nested fields
+  private static final class Node {
+
+    private final Map<String, Node> children = new HashMap<>();
+
+    private boolean leaf;
+
+    private static Node of(final Collection<String> paths) {
+      final Node root = new Node();
+      for (final String path : paths) {
+        Node node = root;
+        for (final String field : path.split("\\.")) {
+          if (node.leaf) {
+            break;
+          }
+          node = node.children.computeIfAbsent(field, key -> new Node());
+        }
+        node.leaf = true;
+        node.children.clear();
+      }
+      return root;
+    }
+
+    private boolean isLeaf() {
+      return this.leaf;
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package com.ksoot.mongodb;
+
+import com.ksoot.common.CommonConstants;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.AuditorAware;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+/**
+ * Routes Audit records created on the writing thread to the applicable writer. Within a
+ * Transaction, Audit records are buffered and written in one batch just before commit. Without
+ * Transactions, they are either queued to {@link AsyncAuditWriter} or written synchronously,
+ * through {@link JournalingAuditWriter} if the journal is enabled.
+ *
+ * <p>Time-series Audit collections can not be written in Transactions. Their Audit records
+ * created within a Transaction are held until it commits and then recorded as without
+ * Transactions, suspending the committed Transaction.
+ *
+ * <p>The actor is resolved through the {@link AuditorAware} bean if one is defined, or else as the
+ * name of the authenticated user in the Spring Security context. It is resolved at most once per
+ * web request and kept as a request attribute for the other Audit records of the request.
+ * Outside web requests, it is resolved per Audit record and falls back to {@code SYSTEM}.
+ *
+ * @author Rajveer Singh
+ */
+@Component
+@ConditionalOnProperty(
+    prefix = "application.mongodb.auditing",
+    name = "enabled",
+    havingValue = "true")
+@RequiredArgsConstructor
+class AuditRecorder {
+
+  private static final String ACTOR_ATTRIBUTE = AuditRecorder.class.getName() + ".ACTOR";
+
+  // Actor of Audit records unless a bean of type AuditorAware<String> is defined
+  private static final AuditorAware<String> SECURITY_CONTEXT_AUDITOR =
+      () ->
+          Optional.ofNullable(SecurityContextHolder.getContext().getAuthentication())
+              .map(Authentication::getName);
+
+  private final MongoAuditProperties mongoAuditProperties;
+
+  private final AuditEventWriter auditEventWriter;
+
+  private final AsyncAuditWriter asyncAuditWriter;
+
+  private final JournalingAuditWriter journalingAuditWriter;
+
+  private final ObjectProvider<AuditorAware<String>> auditorAware;
+
+  private final AuditRetryPolicy auditRetryPolicy;
+
+  private final PlatformTransactionManager transactionManager;
+
+  // Audit records are created on the writing thread only by LISTENER engine
+  boolean isRecording() {
+    return this.mongoAuditProperties.getAuditing().getEngine()
+        == MongoAuditProperties.Engine.LISTENER;
+  }
+
+  void record(final AuditEvent auditEvent, final AuditMetaData.Metadata metadata) {
+    this.record(List.of(auditEvent), metadata);
+  }
+
+  // All Audit records are expected to be of the Source collection of given metadata
+  void record(final List<AuditEvent> auditEvents, final AuditMetaData.Metadata metadata) {
+    if (!this.isRecording() || auditEvents.isEmpty()) {
+      // Audited by ChangeStreamAuditEngine
+      return;
+    }
+    if (TransactionSynchronizationManager.isActualTransactionActive()
+        && TransactionSynchronizationManager.isSynchronizationActive()) {
+      if (metadata.timeSeries()) {
+        this.recordAfterCommit(auditEvents, metadata);
+      } else {
+        auditEvents.forEach(this.auditEventWriter::writeOnCommit);
+      }
+    } else if (this.mongoAuditProperties.getAuditing().isWithoutTransaction()) {
+      this.recordWithoutTransaction(auditEvents, metadata);
+    } else {
+      throw new IllegalStateException(
+          "No active transaction while MongoDB Auditing. Try updating collection: '"
+              + auditEvents.get(0).getCollectionName()
+              + "' in a Transaction");
+    }
+  }
+
+  private void recordWithoutTransaction(
+      final List<AuditEvent> auditEvents, final AuditMetaData.Metadata metadata) {
+    if (this.asyncAuditWriter.isEnabled()) {
+      auditEvents.forEach(this.asyncAuditWriter::submit);
+    } else if (this.journalingAuditWriter.isEnabled()) {
+      this.journalingAuditWriter.write(auditEvents, metadata);
+    } else if (auditEvents.size() == 1) {
+      this.auditRetryPolicy.execute(
+          metadata,
+          auditEvents.get(0).getCollectionName(),
+          () -> this.auditEventWriter.write(auditEvents));
+    } else {
+      this.auditEventWriter.bulkWrite(auditEvents);
+    }
+  }
+
+  private void recordAfterCommit(
+      final List<AuditEvent> auditEvents, final AuditMetaData.Metadata metadata) {
+    AfterCommitAuditBuffer buffer =
+        (AfterCommitAuditBuffer) TransactionSynchronizationManager.getResource(this);
+    if (buffer == null) {
+      buffer = new AfterCommitAuditBuffer();
+      TransactionSynchronizationManager.bindResource(this, buffer);
+      TransactionSynchronizationManager.registerSynchronization(buffer);
+    }
+    buffer.add(auditEvents, metadata);
+  }
+
+  String currentActor() {
+    final RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+    if (requestAttributes == null) {
+      return this.resolveActor();
+    }
+    String actor =
+        (String) requestAttributes.getAttribute(ACTOR_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+    if (actor == null) {
+      actor = this.resolveActor();
+      requestAttributes.setAttribute(ACTOR_ATTRIBUTE, actor, RequestAttributes.SCOPE_REQUEST);
+    }
+    return actor;
+  }
+
+  private String resolveActor() {
+    return this.auditorAware
+        .getIfAvailable(() -> SECURITY_CONTEXT_AUDITOR)
+        .getCurrentAuditor()
+        .orElse(CommonConstants.SYSTEM_USER);
+  }
+
+  private final class AfterCommitAuditBuffer implements TransactionSynchronization {
+
+    private final Map<AuditMetaData.Metadata, List<AuditEvent>> auditEvents =
+        new LinkedHashMap<>();
+
+    private void add(final List<AuditEvent> auditEvents, final AuditMetaData.Metadata metadata) {
+      this.auditEvents.computeIfAbsent(metadata, key -> new ArrayList<>()).addAll(auditEvents);
+    }
+
+    @Override
+    public void afterCommit() {
+      // The session of the committed Transaction is still bound to the thread until completion
+      new TransactionTemplate(
+              AuditRecorder.this.transactionManager,
+              new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_NOT_SUPPORTED))
+          .executeWithoutResult(
+              status ->
+                  this.auditEvents.forEach(
+                      (metadata, events) ->
+                          AuditRecorder.this.recordWithoutTransaction(events, metadata)));
+    }
+
+    @Override
+    public void afterCompletion(final int status) {
+      TransactionSynchronizationManager.unbindResourceIfPossible(AuditRecorder.this);
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package com.ksoot.mongodb;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.ThreadLocalRandom;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.stereotype.Component;
+
+/**
+ * Retries Audit writes failing on revision conflicts, i.e. {@link DuplicateKeyException} on the
+ * unique revision index, with exponential backoff and jitter, so that concurrent writers do not
+ * retry in lockstep. Conflicts and retries are counted per Source collection in metrics {@code
+ * mongodb.audit.revision.conflicts} and {@code mongodb.audit.revision.retries}.
+ *
+ * <p>Failed asynchronous bulk writes are retried with the same backoff by {@link
+ * AsyncAuditWriter}.
+ *
+ * <p>Only writes outside Transactions are retried. Within a Transaction a conflict aborts the
+ * Transaction, so it is only counted and rethrown.
+ *
+ * @author Rajveer Singh
+ */
+@Component
+@ConditionalOnProperty(
+    prefix = "application.mongodb.auditing",
+    name = "enabled",
+    havingValue = "true")
+@Slf4j
+@RequiredArgsConstructor
+class AuditRetryPolicy {
+
+  private final MongoAuditProperties mongoAuditProperties;
+
+  private final MeterRegistry meterRegistry;
+
+  void execute(
+      final AuditMetaData.Metadata metadata, final String collectionName, final Runnable write) {
+    final MongoAuditProperties.Auditing.Retry retry =
+        this.mongoAuditProperties.getAuditing().getRetry();
+    for (int attempt = 1; ; attempt++) {
+      try {
+        write.run();
+        return;
+      } catch (final DuplicateKeyException exception) {
+        this.conflict(collectionName);
+        if (attempt >= retry.getMaxAttempts()) {
+          throw new IllegalStateException(
+              "Non recoverable Race condition in MongoDB Auditing, "
+                  + "while getting next revision number for collection: '"
+                  + metadata.auditCollectionName()
+                  + "' after "
+                  + attempt
+                  + " attempts",
+              exception);
+        }
+        this.meterRegistry
+            .counter("mongodb.audit.revision.retries", "collection", collectionName)
+            .increment();
+        this.backoff(attempt);
+      }
+    }
+  }
+
+  int maxAttempts() {
+    return this.mongoAuditProperties.getAuditing().getRetry().getMaxAttempts();
+  }
+
+  // Failures a retry may resolve: MongoDB unavailable or timing out, write concern errors and
+  // revision conflicts, revisions being allocated again on retry. Validation errors or oversized
+  // documents fail the same way on every attempt
+  static boolean isTransient(final RuntimeException exception) {
+    if (exception instanceof TransientDataAccessException
+        || exception instanceof DataAccessResourceFailureException
+        || exception instanceof DuplicateKeyException) {
+      return true;
+    }
+    return exception instanceof BulkOperationException bulkException
+        && bulkException.getCause() instanceof MongoBulkWriteException writeException
+        && (writeException.getWriteConcernError() != null
+            || writeException.getWriteErrors().stream()
+                .anyMatch(
+                    error ->
+                        ErrorCategory.fromErrorCode(error.getCode())
+                            == ErrorCategory.DUPLICATE_KEY));
+  }
+
+  void conflict(final String collectionName) {
+    this.meterRegistry
+        .counter("mongodb.audit.revision.conflicts", "collection", collectionName)
+        .increment();
+  }
+
+  void backoff(final int attempt) {
+    final long delay = this.delay(attempt);
+    log.debug("Retrying Audit write, attempt {} in {} ns", attempt + 1, delay);
+    try {
+      Thread.sleep(delay / 1_000_000, (int) (delay % 1_000_000));
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while retrying Audit write", e);
+    }
+  }
+
+  // Exponential backoff in nanoseconds capped at max-backoff, of which up to jitter fraction is
+  // randomized
+  long delay(final int attempt) {
+    final MongoAuditProperties.Auditing.Retry retry =
+        this.mongoAuditProperties.getAuditing().getRetry();
+    final double backoff =
+        Math.min(
+            retry.getMaxBackoff().toNanos(),
+            retry.getInitialBackoff().toNanos() * Math.pow(retry.getMultiplier(), attempt - 1));
+    return (long) (backoff * (1 - retry.getJitter() * ThreadLocalRandom.current().nextDouble()));
+  }
+}
@@ -0,0 +1,232 @@
+package com.ksoot.mongodb;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Updates;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+/**
+ * Allocates Audit revisions from a dedicated counters collection, one counter document per
+ * Audit collection and Source collection pair. Each allocation is a single atomic {@code $inc}
+ * through {@code findAndModify}, so its cost does not depend on the size of the Audit history.
+ * When called inside a Transaction, the counter update is part of the same Transaction.
+ *
+ * <p>If {@code application.mongodb.auditing.revision-block-size} is more than 1, each application
+ * instance reserves blocks of revisions with a single {@code $inc} outside any Transaction and
+ * hands them out from memory, so allocating a revision costs no round trip until the block is
+ * exhausted. Revisions then remain unique but are not contiguous: revisions of a rolled back
+ * Transaction and the unused part of blocks on shutdown are never used, and revisions of
+ * different instances interleave in time. Block refills are counted in metric {@code
+ * mongodb.audit.revision.block.refills}.
+ *
+ * <p>Source collections audited with {@link Auditable.RevisionScope#DOCUMENT} use one counter
+ * document per Source document instead, allocated with the same atomic {@code $inc} and never
+ * reserved in blocks. Such a counter is seeded from the latest revision of the document on first
+ * use.
+ *
+ * @author Rajveer Singh
+ */
+@Component
+@ConditionalOnProperty(
+    prefix = "application.mongodb.auditing",
+    name = "enabled",
+    havingValue = "true")
+@Slf4j
+@RequiredArgsConstructor
+class AuditRevisionSequence {
+
+  private static final String SEQUENCE_FIELD = "seq";
+
+  private final MongoAuditProperties mongoAuditProperties;
+
+  private final MongoOperations mongoOperations;
+
+  private final MongoDatabaseFactory mongoDatabaseFactory;
+
+  private final MeterRegistry meterRegistry;
+
+  private final Map<String, RevisionBlock> revisionBlocks = new ConcurrentHashMap<>();
+
+  long next(final String auditCollectionName, final String collectionName) {
+    return this.reserve(auditCollectionName, collectionName, 1);
+  }
+
+  // Per document revisions are allocated from a counter document per Source document, with the
+  // same atomic $inc as per collection revisions. A missing counter is seeded from the latest
+  // revision of the document first, so existing histories continue where they left off
+  long nextOfDocument(
+      final String auditCollectionName, final String collectionName, final Object documentId) {
+    final Query counterQuery =
+        this.documentCounterQuery(auditCollectionName, collectionName, documentId);
+    Document counter =
+        this.mongoOperations.findAndModify(
+            counterQuery,
+            new Update().inc(SEQUENCE_FIELD, 1),
+            FindAndModifyOptions.options().returnNew(true),
+            Document.class,
+            this.sequenceCollection());
+    if (counter == null) {
+      final Query latestRevision =
+          new Query(
+                  Criteria.where("collectionName")
+                      .is(collectionName)
+                      .and("source._id")
+                      .is(documentId))
+              .with(Sort.by(Sort.Direction.DESC, "revision"))
+              .limit(1);
+      latestRevision.fields().include("revision");
+      final Document latest =
+          this.mongoOperations.findOne(latestRevision, Document.class, auditCollectionName);
+      final long maxRevision =
+          latest != null && latest.get("revision") instanceof Number revision
+              ? revision.longValue()
+              : 0;
+      // $max keeps concurrent seeding of the same counter safe, the $inc that follows is atomic
+      this.mongoOperations.upsert(
+          counterQuery, new Update().max(SEQUENCE_FIELD, maxRevision), this.sequenceCollection());
+      counter =
+          this.mongoOperations.findAndModify(
+              counterQuery,
+              new Update().inc(SEQUENCE_FIELD, 1),
+              FindAndModifyOptions.options().returnNew(true),
+              Document.class,
+              this.sequenceCollection());
+    }
+    return counter.get(SEQUENCE_FIELD, Number.class).longValue();
+  }
+
+  // Reserves a contiguous block of revisions and returns the first revision of the block
+  long reserve(final String auditCollectionName, final String collectionName, final int count) {
+    final int blockSize = this.mongoAuditProperties.getAuditing().getRevisionBlockSize();
+    if (blockSize > 1) {
+      return this.revisionBlocks
+          .computeIfAbsent(
+              this.counterId(auditCollectionName, collectionName),
+              counterId -> new RevisionBlock())
+          .reserve(
+              count,
+              () ->
+                  this.allocateBlock(
+                      auditCollectionName, collectionName, Math.max(blockSize, count)));
+    }
+    final Document counter =
+        this.mongoOperations.findAndModify(
+            this.counterQuery(auditCollectionName, collectionName),
+            new Update().inc(SEQUENCE_FIELD, count),
+            FindAndModifyOptions.options().upsert(true).returnNew(true),
+            Document.class,
+            this.sequenceCollection());
+    return counter.get(SEQUENCE_FIELD, Number.class).longValue() - count + 1;
+  }
+
+  // Allocated outside of current Transaction, as a block handed out in memory can not be rolled
+  // back along with the Transaction that allocated it
+  private Range allocateBlock(
+      final String auditCollectionName, final String collectionName, final int size) {
+    final Document counter =
+        this.mongoDatabaseFactory
+            .getMongoDatabase()
+            .getCollection(this.sequenceCollection())
+            .findOneAndUpdate(
+                Filters.eq("_id", this.counterId(auditCollectionName, collectionName)),
+                Updates.inc(SEQUENCE_FIELD, size),
+                new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+    this.meterRegistry
+        .counter("mongodb.audit.revision.block.refills", "collection", collectionName)
+        .increment();
+    final long last = counter.get(SEQUENCE_FIELD, Number.class).longValue();
+    return new Range(new AtomicLong(last - size + 1), last);
+  }
+
+  // Creates the counters collection if required, as collections can not be created implicitly in
+  // a Transaction on older MongoDB versions
+  void createSequenceCollectionIfDoesNotExist() {
+    if (!this.mongoOperations.collectionExists(this.sequenceCollection())) {
+      log.info("Created Audit revision sequence collection: " + this.sequenceCollection());
+      this.mongoOperations.createCollection(this.sequenceCollection());
+    }
+  }
+
+  // Seeds the counter from the highest existing revision. $max keeps it safe to run on every
+  // startup and on multiple application instances concurrently
+  void seed(final String auditCollectionName, final String collectionName) {
+    final Query latestRevision =
+        new Query(Criteria.where("collectionName").is(collectionName))
+            .with(Sort.by(Sort.Direction.DESC, "revision"))
+            .limit(1);
+    latestRevision.fields().include("revision");
+    final Document latest =
+        this.mongoOperations.findOne(latestRevision, Document.class, auditCollectionName);
+    final long maxRevision =
+        latest != null && latest.get("revision") instanceof Number revision
+            ? revision.longValue()
+            : 0;
+    this.mongoOperations.upsert(
+        this.counterQuery(auditCollectionName, collectionName),
+        new Update().max(SEQUENCE_FIELD, maxRevision),
+        this.sequenceCollection());
+  }
+
+  private Query counterQuery(final String auditCollectionName, final String collectionName) {
+    return new Query(Criteria.where("_id").is(this.counterId(auditCollectionName, collectionName)));
+  }
+
+  // Compound _id, so Source document ids of any type can be used as they are
+  private Query documentCounterQuery(
+      final String auditCollectionName, final String collectionName, final Object documentId) {
+    return new Query(
+        Criteria.where("_id")
+            .is(
+                new Document("audit", auditCollectionName)
+                    .append("collection", collectionName)
+                    .append("document", documentId)));
+  }
+
+  private String counterId(final String auditCollectionName, final String collectionName) {
+    return auditCollectionName + ":" + collectionName;
+  }
+
+  private String sequenceCollection() {
+    return this.mongoAuditProperties.getAuditing().getRevisionSequenceCollection();
+  }
+
+  // Revisions handed out from memory of an instance, lock free until the block is exhausted
+  private static final class RevisionBlock {
+
+    private volatile Range range = new Range(new AtomicLong(1), 0);
+
+    private long reserve(final int count, final Supplier<Range> allocator) {
+      while (true) {
+        final Range current = this.range;
+        final long first = current.next().getAndAdd(count);
+        if (first + count - 1 <= current.last()) {
+          return first;
+        }
+        synchronized (this) {
+          if (this.range == current) {
+            this.range = allocator.get();
+          }
+        }
+      }
+    }
+  }
+
+  private record Range(AtomicLong next, long last) {}
+}
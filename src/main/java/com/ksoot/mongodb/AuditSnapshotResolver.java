@@ -0,0 +1,116 @@
+package com.ksoot.mongodb;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+/**
+ * Rebuilds full snapshots of delta encoded Audit records, by applying the deltas on top of the
+ * nearest previous full snapshot. Snapshots rebuilt while resolving a page are reused for other
+ * Audit records of the same page. Compressed snapshots are always decompressed, irrespective of
+ * whether deltas are resolved. Base revisions not found in the Audit collection are looked up in
+ * the {@link AuditArchive}.
+ *
+ * @author Rajveer Singh
+ */
+@Component
+@RequiredArgsConstructor
+public class AuditSnapshotResolver {
+
+  private final MongoOperations mongoOperations;
+
+  private final AuditSourceCompressor auditSourceCompressor;
+
+  private final AuditArchive auditArchive;
+
+  public List<AuditEvent> resolve(
+      final String auditCollectionName,
+      final List<AuditEvent> auditEvents,
+      final boolean fullSnapshot) {
+    final Map<SnapshotKey, Document> snapshots = new HashMap<>();
+    return auditEvents.stream()
+        .map(this.auditSourceCompressor::decompress)
+        .map(
+            auditEvent ->
+                fullSnapshot && auditEvent.hasDelta()
+                    ? auditEvent.withSnapshot(
+                        this.snapshot(auditCollectionName, auditEvent, snapshots))
+                    : auditEvent)
+        .toList();
+  }
+
+  private Document snapshot(
+      final String auditCollectionName,
+      final AuditEvent auditEvent,
+      final Map<SnapshotKey, Document> snapshots) {
+    if (!auditEvent.hasDelta()) {
+      return auditEvent.getSource();
+    }
+    final Object documentId = auditEvent.getSource().get("_id");
+    final SnapshotKey key =
+        new SnapshotKey(auditEvent.getCollectionName(), documentId, auditEvent.getRevision());
+    Document snapshot = snapshots.get(key);
+    if (snapshot == null) {
+      AuditEvent base =
+          this.findOne(
+              new Query(
+                  Criteria.where("collectionName")
+                      .is(auditEvent.getCollectionName())
+                      .and("source._id")
+                      .is(documentId)
+                      .and("revision")
+                      .is(auditEvent.getBaseRevision())),
+              auditCollectionName);
+      if (base == null) {
+        base =
+            this.findArchived(
+                auditCollectionName,
+                auditEvent.getCollectionName(),
+                documentId,
+                auditEvent.getBaseRevision());
+      }
+      if (base == null) {
+        throw new IllegalStateException(
+            "Base revision: "
+                + auditEvent.getBaseRevision()
+                + " of Audit record revision: "
+                + auditEvent.getRevision()
+                + " not found in Audit collection or archive: '"
+                + auditCollectionName
+                + "'");
+      }
+      snapshot =
+          DocumentDiff.apply(
+              this.snapshot(auditCollectionName, base, snapshots), auditEvent.getDelta());
+      snapshots.put(key, snapshot);
+    }
+    return snapshot;
+  }
+
+  private AuditEvent findOne(final Query query, final String auditCollectionName) {
+    final AuditEvent auditEvent =
+        this.mongoOperations.findOne(query, AuditEvent.class, auditCollectionName);
+    return auditEvent != null ? this.auditSourceCompressor.decompress(auditEvent) : null;
+  }
+
+  private AuditEvent findArchived(
+      final String auditCollectionName,
+      final String collectionName,
+      final Object documentId,
+      final long revision) {
+    final Document archived =
+        this.auditArchive.findRevision(auditCollectionName, collectionName, documentId, revision);
+    return archived != null
+        ? this.auditSourceCompressor.decompress(
+            this.mongoOperations.getConverter().read(AuditEvent.class, archived))
+        : null;
+  }
+
+  private record SnapshotKey(String collectionName, Object documentId, Long revision) {}
+}
@@ -0,0 +1,132 @@
+package com.ksoot.mongodb;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.springframework.stereotype.Component;
+
+/**
+ * Compresses BSON snapshots of Audit records larger than {@code
+ * application.mongodb.auditing.compression.threshold} into {@code compressedSource} binary
+ * field, and decompresses them back on read. The compression ratio and the time spent encoding
+ * and decoding are recorded per Source collection and algorithm in metrics {@code
+ * mongodb.audit.compression.ratio}, {@code mongodb.audit.compression.encode} and {@code
+ * mongodb.audit.compression.decode}, to help choosing the algorithm per collection.
+ *
+ * @author Rajveer Singh
+ */
+@Component
+@RequiredArgsConstructor
+class AuditSourceCompressor {
+
+  private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec();
+
+  private final MongoAuditProperties mongoAuditProperties;
+
+  private final AuditMetaData auditMetaData;
+
+  private final MeterRegistry meterRegistry;
+
+  List<AuditEvent> compress(final List<AuditEvent> auditEvents) {
+    return auditEvents.stream().map(this::compress).toList();
+  }
+
+  private AuditEvent compress(final AuditEvent auditEvent) {
+    final Auditable.Compression compression =
+        this.auditMetaData.get(auditEvent.getCollectionName()).compression();
+    if (compression == Auditable.Compression.NONE || auditEvent.hasDelta()) {
+      return auditEvent;
+    }
+    final ByteBuffer bson =
+        new RawBsonDocument(auditEvent.getSource(), DOCUMENT_CODEC).getByteBuffer().asNIO();
+    if (bson.remaining()
+        < this.mongoAuditProperties.getAuditing().getCompression().getThreshold().toBytes()) {
+      return auditEvent;
+    }
+
+    final long start = System.nanoTime();
+    final byte[] compressed = deflate(bson, compression);
+    this.timer("mongodb.audit.compression.encode", auditEvent.getCollectionName(), compression)
+        .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    DistributionSummary.builder("mongodb.audit.compression.ratio")
+        .tags("collection", auditEvent.getCollectionName(), "algorithm", compression.name())
+        .register(this.meterRegistry)
+        .record((double) bson.remaining() / compressed.length);
+    return auditEvent.asCompressed(compression, compressed);
+  }
+
+  AuditEvent decompress(final AuditEvent auditEvent) {
+    if (!auditEvent.isCompressed()) {
+      return auditEvent;
+    }
+    final long start = System.nanoTime();
+    // Inflated BSON is decoded only if accessed, otherwise streamed as is
+    final Document source =
+        new LazyDocument(new RawBsonDocument(inflate(auditEvent.getCompressedSource())));
+    this.timer(
+            "mongodb.audit.compression.decode",
+            auditEvent.getCollectionName(),
+            auditEvent.getCompression())
+        .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    return auditEvent.decompressed(source);
+  }
+
+  private Timer timer(
+      final String name, final String collectionName, final Auditable.Compression compression) {
+    return Timer.builder(name)
+        .tags("collection", collectionName, "algorithm", compression.name())
+        .register(this.meterRegistry);
+  }
+
+  private static byte[] deflate(final ByteBuffer input, final Auditable.Compression compression) {
+    final Deflater deflater =
+        new Deflater(
+            compression == Auditable.Compression.DEFLATE_FAST
+                ? Deflater.BEST_SPEED
+                : Deflater.DEFAULT_COMPRESSION);
+    try {
+      deflater.setInput(input.duplicate());
+      deflater.finish();
+      final ByteArrayOutputStream output = new ByteArrayOutputStream(input.remaining() / 2);
+      final byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        output.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return output.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static byte[] inflate(final byte[] input) {
+    final Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(input);
+      final ByteArrayOutputStream output = new ByteArrayOutputStream(input.length * 4);
+      final byte[] buffer = new byte[8192];
+      while (!inflater.finished()) {
+        final int length = inflater.inflate(buffer);
+        if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IllegalStateException("Truncated compressed Audit snapshot");
+        }
+        output.write(buffer, 0, length);
+      }
+      return output.toByteArray();
+    } catch (final DataFormatException e) {
+      throw new IllegalStateException("Corrupt compressed Audit snapshot", e);
+    } finally {
+      inflater.end();
+    }
+  }
+}
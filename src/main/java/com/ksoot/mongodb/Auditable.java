@@ -10,4 +10,66 @@ import java.lang.annotation.Target;
 public @interface Auditable {
 
   String name() default "";
+
+  /**
+   * Default: {@link RevisionScope#COLLECTION}. Whether Audit revisions are numbered per Source
+   * collection or per Source document.
+   */
+  RevisionScope revisionScope() default RevisionScope.COLLECTION;
+
+  /**
+   * Default: {@link Storage#FULL}. Whether Audit records of updates store full snapshots or
+   * only the changes since previous revision.
+   */
+  Storage storage() default Storage.FULL;
+
+  /**
+   * Default: {@link Compression#DEFAULT}. Compression of snapshots larger than {@code
+   * application.mongodb.auditing.compression.threshold}.
+   */
+  Compression compression() default Compression.DEFAULT;
+
+  /**
+   * Default: all fields. Dot separated paths of the only fields, as stored, included in
+   * snapshots of Audit records. {@code _id} is always included.
+   */
+  String[] includes() default {};
+
+  /**
+   * Default: none. Dot separated paths of fields, as stored, excluded from snapshots of Audit
+   * records, in addition to the fields annotated with {@link AuditIgnore}.
+   */
+  String[] excludes() default {};
+
+  enum RevisionScope {
+    /** One revision sequence shared by all documents of the Source collection. */
+    COLLECTION,
+    /**
+     * One revision sequence per Source document, so writes to different documents never contend
+     * for the same revision.
+     */
+    DOCUMENT
+  }
+
+  enum Storage {
+    /** Every Audit record stores full snapshot of Source document. */
+    FULL,
+    /**
+     * Audit records of updates store only a structural diff against a previous revision, with a
+     * full snapshot (keyframe) every {@code application.mongodb.auditing.delta.keyframe-interval}
+     * revisions.
+     */
+    DELTA
+  }
+
+  enum Compression {
+    /** As configured in {@code application.mongodb.auditing.compression.algorithm}. */
+    DEFAULT,
+    /** Snapshots are not compressed. */
+    NONE,
+    /** Deflate with default compression level, better compression ratio. */
+    DEFLATE,
+    /** Deflate with best speed compression level, lower CPU cost. */
+    DEFLATE_FAST
+  }
 }
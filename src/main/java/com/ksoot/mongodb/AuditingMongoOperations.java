@@ -0,0 +1,257 @@
+package com.ksoot.mongodb;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.data.util.Pair;
+import org.springframework.stereotype.Component;
+
+/**
+ * Audited counterparts of set based write operations of {@link MongoOperations}, which do not
+ * publish Spring Data MongoDB events per document and hence bypass {@link MongoAuditListener}.
+ * Ids of the matching documents are read batch by batch, {@code
+ * application.mongodb.auditing.bulk.batch-size} ids at a time in {@code _id} order, and each batch
+ * is written before the next one is read, seeking past the last id of the previous batch. So ids
+ * are never all held in memory and documents changed by a batch are not matched again. For each
+ * batch the Audit records are written with a single bulk insert, with revisions allocated as one
+ * block.
+ *
+ * <p>Updated documents are audited with their state read back after the update. Removals are
+ * restricted to the ids of each batch by an {@code _id} {@code $in} query and audited by {@link
+ * MongoAuditListener}, which reads the ids matching each removal query before removing, so at
+ * most a batch of ids is held in memory, where {@link MongoOperations#remove(Query, Class)} reads
+ * all matching ids at once. Without Transactions, a document changed concurrently to no longer
+ * match the query is still audited once with its current state.
+ *
+ * <p>Inserts and replacements through {@link MongoOperations#bulkOps} publish events per document
+ * and are audited by {@link MongoAuditListener}, use {@link #bulkUpdate} for bulk updates.
+ *
+ * @author Rajveer Singh
+ */
+@Component
+@ConditionalOnProperty(
+    prefix = "application.mongodb.auditing",
+    name = "enabled",
+    havingValue = "true")
+@RequiredArgsConstructor
+public class AuditingMongoOperations {
+
+  private final MongoAuditProperties mongoAuditProperties;
+
+  private final MongoOperations mongoOperations;
+
+  private final AuditMetaData auditMetaData;
+
+  private final AuditRecorder auditRecorder;
+
+  public UpdateResult updateMulti(
+      final Query query, final UpdateDefinition update, final Class<?> entityClass) {
+    return this.updateMulti(
+        query, update, entityClass, this.mongoOperations.getCollectionName(entityClass));
+  }
+
+  public UpdateResult updateMulti(
+      final Query query,
+      final UpdateDefinition update,
+      final Class<?> entityClass,
+      final String collectionName) {
+    final AuditMetaData.Metadata metadata = this.auditMetaData.get(collectionName);
+    if (metadata == null || !this.auditRecorder.isRecording()) {
+      return this.mongoOperations.updateMulti(query, update, entityClass, collectionName);
+    }
+    final List<UpdateResult> results = new ArrayList<>();
+    this.forEachBatch(
+        query,
+        entityClass,
+        collectionName,
+        ids -> {
+          results.add(
+              this.mongoOperations.updateMulti(
+                  this.byIds(query, ids), update, entityClass, collectionName));
+          this.auditUpdated(ids, collectionName, metadata);
+        });
+    return UpdateResult.acknowledged(
+        results.stream().mapToLong(UpdateResult::getMatchedCount).sum(),
+        results.stream().mapToLong(UpdateResult::getModifiedCount).sum(),
+        null);
+  }
+
+  public DeleteResult remove(final Query query, final Class<?> entityClass) {
+    return this.remove(query, entityClass, this.mongoOperations.getCollectionName(entityClass));
+  }
+
+  public DeleteResult remove(
+      final Query query, final Class<?> entityClass, final String collectionName) {
+    final AuditMetaData.Metadata metadata = this.auditMetaData.get(collectionName);
+    if (metadata == null || !this.auditRecorder.isRecording()) {
+      return this.mongoOperations.remove(query, entityClass, collectionName);
+    }
+    // Audited by MongoAuditListener, which reads the ids matching the query of each batch
+    final List<DeleteResult> results = new ArrayList<>();
+    this.forEachBatch(
+        query,
+        entityClass,
+        collectionName,
+        ids ->
+            results.add(
+                this.mongoOperations.remove(this.byIds(query, ids), entityClass, collectionName)));
+    return DeleteResult.acknowledged(
+        results.stream().mapToLong(DeleteResult::getDeletedCount).sum());
+  }
+
+  /**
+   * Executes given updates as unordered bulk operations, each update applied to all documents
+   * matching its query, and audits all updated documents. Each bulk operation covers up to {@code
+   * bulk.batch-size} matching ids, across updates.
+   *
+   * @param updates pairs of query and update
+   * @param entityClass entity class of the Source collection
+   * @return result of the bulk operation
+   */
+  public BulkWriteResult bulkUpdate(
+      final List<Pair<Query, UpdateDefinition>> updates, final Class<?> entityClass) {
+    final String collectionName = this.mongoOperations.getCollectionName(entityClass);
+    final AuditMetaData.Metadata metadata = this.auditMetaData.get(collectionName);
+    final BulkOperations bulkOperations =
+        this.mongoOperations.bulkOps(
+            BulkOperations.BulkMode.UNORDERED, entityClass, collectionName);
+    if (metadata == null || !this.auditRecorder.isRecording()) {
+      return bulkOperations.updateMulti(updates).execute();
+    }
+    // Each update is restricted to the ids of its matching documents, batch by batch
+    final int batchSize = this.mongoAuditProperties.getAuditing().getBulk().getBatchSize();
+    final List<Pair<Query, UpdateDefinition>> restrictedUpdates = new ArrayList<>();
+    final Set<Object> ids = new LinkedHashSet<>();
+    final List<BulkWriteResult> results = new ArrayList<>();
+    for (final Pair<Query, UpdateDefinition> update : updates) {
+      this.forEachBatch(
+          update.getFirst(),
+          entityClass,
+          collectionName,
+          matchingIds -> {
+            restrictedUpdates.add(
+                Pair.of(this.byIds(update.getFirst(), matchingIds), update.getSecond()));
+            ids.addAll(matchingIds);
+            if (ids.size() >= batchSize) {
+              results.add(
+                  this.bulkUpdate(restrictedUpdates, ids, entityClass, collectionName, metadata));
+            }
+          });
+    }
+    if (!restrictedUpdates.isEmpty()) {
+      results.add(this.bulkUpdate(restrictedUpdates, ids, entityClass, collectionName, metadata));
+    }
+    return BulkWriteResult.acknowledged(
+        0,
+        results.stream().mapToInt(BulkWriteResult::getMatchedCount).sum(),
+        0,
+        results.stream().mapToInt(BulkWriteResult::getModifiedCount).sum(),
+        List.of(),
+        List.of());
+  }
+
+  // Executes and audits the restricted updates of a batch, then clears the batch
+  private BulkWriteResult bulkUpdate(
+      final List<Pair<Query, UpdateDefinition>> restrictedUpdates,
+      final Set<Object> ids,
+      final Class<?> entityClass,
+      final String collectionName,
+      final AuditMetaData.Metadata metadata) {
+    final BulkWriteResult result =
+        this.mongoOperations
+            .bulkOps(BulkOperations.BulkMode.UNORDERED, entityClass, collectionName)
+            .updateMulti(restrictedUpdates)
+            .execute();
+    this.auditUpdated(List.copyOf(ids), collectionName, metadata);
+    restrictedUpdates.clear();
+    ids.clear();
+    return result;
+  }
+
+  private void auditUpdated(
+      final List<Object> ids, final String collectionName, final AuditMetaData.Metadata metadata) {
+    final String actor = this.auditRecorder.currentActor();
+    final long timestamp = System.currentTimeMillis();
+    this.auditRecorder.record(
+        this.mongoOperations
+            .find(this.byIds(null, ids), Document.class, collectionName)
+            .stream()
+            .map(
+                document ->
+                    AuditEvent.of(
+                        AuditEvent.Type.UPDATED,
+                        timestamp,
+                        null,
+                        collectionName,
+                        document,
+                        actor))
+            .toList(),
+        metadata);
+  }
+
+  // Ids of documents matching the query, batch by batch in _id order. Each batch is read after
+  // the previous one is processed, seeking past its last id
+  private void forEachBatch(
+      final Query query,
+      final Class<?> entityClass,
+      final String collectionName,
+      final Consumer<List<Object>> action) {
+    final int batchSize = this.mongoAuditProperties.getAuditing().getBulk().getBatchSize();
+    Object lastId = null;
+    while (true) {
+      final Query batchQuery =
+          new BasicQuery(
+                  lastId == null
+                      ? query.getQueryObject()
+                      : new Document(
+                          "$and",
+                          List.of(
+                              query.getQueryObject(),
+                              new Document("_id", new Document("$gt", lastId)))),
+                  new Document("_id", 1))
+              .with(Sort.by("_id"))
+              .limit(batchSize);
+      final List<Object> ids =
+          this.mongoOperations
+              .query(entityClass)
+              .inCollection(collectionName)
+              .as(Document.class)
+              .matching(batchQuery)
+              .all()
+              .stream()
+              .map(document -> document.get("_id"))
+              .toList();
+      if (ids.isEmpty()) {
+        return;
+      }
+      action.accept(ids);
+      if (ids.size() < batchSize) {
+        return;
+      }
+      lastId = ids.get(ids.size() - 1);
+    }
+  }
+
+  // Restricts given query, if any, to given ids. The _id condition stays on top level, where
+  // MongoAuditListener resolves removed ids from. Nested query is mapped by the entity class of
+  // the operation it is used in
+  private Query byIds(final Query query, final List<Object> ids) {
+    final Document byIds = new Document("_id", new Document("$in", ids));
+    return new BasicQuery(
+        query != null ? byIds.append("$and", List.of(query.getQueryObject())) : byIds);
+  }
+}
@@ -0,0 +1,300 @@
+package com.ksoot.mongodb;
+
+import com.ksoot.common.CommonConstants;
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+/**
+ * Auditing engine built on MongoDB change streams, enabled by setting {@code
+ * application.mongodb.auditing.engine} to {@code CHANGE_STREAM}. A dedicated worker watches all
+ * audited Source collections with {@code fullDocument: updateLookup} and writes Audit records in
+ * batches, so Auditing adds no latency to the write path and captures writes from any client.
+ *
+ * <p>The resume token of the last audited change is persisted in a checkpoint collection after
+ * each batch, so Auditing resumes where it stopped after a restart. Audit records are written at
+ * least once, the change event id is used as Audit record id so replayed changes are ignored.
+ * Actor is not available in change events, so it is always {@code SYSTEM}. When collections are
+ * registered for Auditing later on, the change stream is reopened from the last checkpoint to
+ * watch them as well.
+ *
+ * @author Rajveer Singh
+ */
+@Component
+@ConditionalOnProperty(
+    prefix = "application.mongodb.auditing",
+    name = "enabled",
+    havingValue = "true")
+@Slf4j
+class ChangeStreamAuditEngine implements SmartLifecycle {
+
+  private static final int CHANGE_STREAM_HISTORY_LOST = 286;
+
+  private static final int DUPLICATE_KEY = 11000;
+
+  private static final long RECONNECT_DELAY_MILLIS = 5000;
+
+  private final MongoAuditProperties mongoAuditProperties;
+
+  private final MongoAuditProperties.Auditing.ChangeStream changeStreamProperties;
+
+  private final MongoOperations mongoOperations;
+
+  private final MongoDatabaseFactory mongoDatabaseFactory;
+
+  private final AuditMetaData auditMetaData;
+
+  private final AuditEventWriter auditEventWriter;
+
+  private volatile boolean running;
+
+  private Thread worker;
+
+  ChangeStreamAuditEngine(
+      final MongoAuditProperties mongoAuditProperties,
+      final MongoOperations mongoOperations,
+      final MongoDatabaseFactory mongoDatabaseFactory,
+      final AuditMetaData auditMetaData,
+      final AuditEventWriter auditEventWriter) {
+    this.mongoAuditProperties = mongoAuditProperties;
+    this.changeStreamProperties = mongoAuditProperties.getAuditing().getChangeStream();
+    this.mongoOperations = mongoOperations;
+    this.mongoDatabaseFactory = mongoDatabaseFactory;
+    this.auditMetaData = auditMetaData;
+    this.auditEventWriter = auditEventWriter;
+  }
+
+  private void consume() {
+    while (this.running) {
+      final Set<String> collectionNames = this.auditMetaData.getCollectionNames();
+      final BsonDocument lastCheckpoint = this.lastCheckpoint();
+      try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor =
+          this.openCursor(collectionNames, lastCheckpoint)) {
+        if (lastCheckpoint == null && cursor.getResumeToken() != null) {
+          // Position the stream was opened at, so a reopened stream does not skip changes
+          this.checkpoint(cursor.getResumeToken());
+        }
+        final List<AuditEvent> batch = new ArrayList<>(this.changeStreamProperties.getBatchSize());
+        BsonDocument resumeToken = null;
+        while (this.running) {
+          if (!collectionNames.equals(this.auditMetaData.getCollectionNames())) {
+            // Not checkpointed changes are replayed by the reopened stream, which also watches
+            // collections registered since it was opened
+            log.info(
+                "Audited collections changed, reopening change stream for collections: {}",
+                this.auditMetaData.getCollectionNames());
+            break;
+          }
+          final ChangeStreamDocument<Document> change = cursor.tryNext();
+          if (change != null) {
+            final AuditEvent auditEvent = this.toAuditEvent(change);
+            if (auditEvent != null) {
+              batch.add(auditEvent);
+            }
+            resumeToken = change.getResumeToken();
+          }
+          if (resumeToken != null
+              && (change == null || batch.size() >= this.changeStreamProperties.getBatchSize())) {
+            this.write(batch);
+            this.checkpoint(resumeToken);
+            batch.clear();
+            resumeToken = null;
+          }
+        }
+      } catch (final MongoCommandException e) {
+        if (e.getErrorCode() == CHANGE_STREAM_HISTORY_LOST) {
+          log.error(
+              "Change stream resume token no longer in oplog, "
+                  + "changes since last checkpoint are not audited. Resuming from now",
+              e);
+          this.clearCheckpoint();
+        } else {
+          this.onFailure(e);
+        }
+      } catch (final RuntimeException e) {
+        // Not checkpointed changes are replayed on reconnect
+        this.onFailure(e);
+      }
+    }
+  }
+
+  private MongoChangeStreamCursor<ChangeStreamDocument<Document>> openCursor(
+      final Set<String> collectionNames, final BsonDocument resumeToken) {
+    final ChangeStreamIterable<Document> changeStream =
+        this.mongoDatabaseFactory
+            .getMongoDatabase()
+            .watch(
+                List.of(
+                    Aggregates.match(
+                        Filters.and(
+                            Filters.in("ns.coll", collectionNames),
+                            Filters.in(
+                                "operationType", "insert", "update", "replace", "delete")))))
+            .fullDocument(FullDocument.UPDATE_LOOKUP)
+            .batchSize(this.changeStreamProperties.getBatchSize())
+            .maxAwaitTime(
+                this.changeStreamProperties.getMaxAwaitTime().toMillis(), TimeUnit.MILLISECONDS);
+    return (resumeToken != null ? changeStream.resumeAfter(resumeToken) : changeStream).cursor();
+  }
+
+  private AuditEvent toAuditEvent(final ChangeStreamDocument<Document> change) {
+    final String collectionName = change.getNamespace().getCollectionName();
+    if (!this.auditMetaData.isPresent(collectionName)) {
+      return null;
+    }
+    final AuditEvent.Type type;
+    final Document source;
+    switch (change.getOperationType()) {
+      case INSERT -> {
+        type = AuditEvent.Type.CREATED;
+        source = change.getFullDocument();
+      }
+      case UPDATE, REPLACE -> {
+        type = AuditEvent.Type.UPDATED;
+        source = change.getFullDocument();
+      }
+      case DELETE -> {
+        type = AuditEvent.Type.DELETED;
+        source =
+            new DocumentCodec()
+                .decode(
+                    new BsonDocumentReader(change.getDocumentKey()),
+                    DecoderContext.builder().build());
+      }
+      default -> {
+        return null;
+      }
+    }
+    if (Objects.isNull(source)) {
+      // Document deleted before the update could be looked up, its deletion is audited separately
+      return null;
+    }
+    final long timestamp =
+        change.getWallTime() != null
+            ? change.getWallTime().getValue()
+            : change.getClusterTime().getTime() * 1000L;
+    return AuditEvent.of(
+        change.getResumeToken().getString("_data").getValue(),
+        type,
+        timestamp,
+        null,
+        collectionName,
+        source,
+        CommonConstants.SYSTEM_USER);
+  }
+
+  private void write(final List<AuditEvent> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    try {
+      this.auditEventWriter.bulkWrite(batch);
+    } catch (final BulkOperationException e) {
+      // Changes replayed after a restart are already audited, identified by Audit record id
+      if (e.getErrors().stream().anyMatch(error -> error.getCode() != DUPLICATE_KEY)) {
+        throw e;
+      }
+      log.debug("Ignored {} already audited changes", e.getErrors().size());
+    }
+  }
+
+  private BsonDocument lastCheckpoint() {
+    final Document checkpoint =
+        this.mongoOperations.findOne(
+            this.checkpointQuery(),
+            Document.class,
+            this.changeStreamProperties.getCheckpointCollection());
+    return checkpoint != null
+        ? new BsonDocument("_data", new BsonString(checkpoint.getString("resumeToken")))
+        : null;
+  }
+
+  private void checkpoint(final BsonDocument resumeToken) {
+    this.mongoOperations.upsert(
+        this.checkpointQuery(),
+        new Update()
+            .set("resumeToken", resumeToken.getString("_data").getValue())
+            .currentDate("datetime"),
+        this.changeStreamProperties.getCheckpointCollection());
+  }
+
+  private void clearCheckpoint() {
+    this.mongoOperations.remove(
+        this.checkpointQuery(), this.changeStreamProperties.getCheckpointCollection());
+  }
+
+  private Query checkpointQuery() {
+    return new Query(
+        Criteria.where("_id")
+            .is("change-stream:" + this.mongoDatabaseFactory.getMongoDatabase().getName()));
+  }
+
+  private void onFailure(final RuntimeException exception) {
+    log.error(
+        "Change stream Auditing failed, reconnecting in " + RECONNECT_DELAY_MILLIS + " ms",
+        exception);
+    try {
+      Thread.sleep(RECONNECT_DELAY_MILLIS);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      this.running = false;
+    }
+  }
+
+  @Override
+  public void start() {
+    if (this.mongoAuditProperties.getAuditing().getEngine()
+        == MongoAuditProperties.Engine.CHANGE_STREAM) {
+      this.running = true;
+      this.worker = new Thread(this::consume, "mongodb-audit-change-stream");
+      this.worker.setDaemon(true);
+      this.worker.start();
+      log.info(
+          "Started change stream Auditing of collections: {}",
+          this.auditMetaData.getCollectionNames());
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (this.worker != null) {
+      this.running = false;
+      try {
+        this.worker.join(this.changeStreamProperties.getMaxAwaitTime().multipliedBy(2).toMillis());
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      this.worker = null;
+    }
+  }
+
+  @Override
+  public boolean isRunning() {
+    return this.running;
+  }
+}
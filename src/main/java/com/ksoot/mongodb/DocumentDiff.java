@@ -0,0 +1,105 @@
+package com.ksoot.mongodb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.bson.Document;
+
+/**
+ * Structural diff of BSON documents. A diff is a list of operations, each either {@code {op:
+ * "set", path: [..], value: ..}} or {@code {op: "unset", path: [..]}}, where path is the list of
+ * field names from the root document. Embedded documents are diffed field by field, arrays and
+ * all other values are replaced as a whole.
+ *
+ * @author Rajveer Singh
+ */
+final class DocumentDiff {
+
+  static final String OP = "op";
+
+  static final String OP_SET = "set";
+
+  static final String OP_UNSET = "unset";
+
+  static final String PATH = "path";
+
+  static final String VALUE = "value";
+
+  private DocumentDiff() {
+    throw new IllegalStateException("Just a utility class, not supposed to be instantiated");
+  }
+
+  static List<Document> diff(final Document previous, final Document current) {
+    final List<Document> operations = new ArrayList<>();
+    diff(previous, current, new ArrayList<>(), operations);
+    return operations;
+  }
+
+  private static void diff(
+      final Document previous,
+      final Document current,
+      final List<String> path,
+      final List<Document> operations) {
+    for (final Map.Entry<String, Object> entry : current.entrySet()) {
+      final List<String> fieldPath = append(path, entry.getKey());
+      final Object previousValue = previous.get(entry.getKey());
+      if (!previous.containsKey(entry.getKey())) {
+        operations.add(set(fieldPath, entry.getValue()));
+      } else if (previousValue instanceof Document previousDocument
+          && entry.getValue() instanceof Document currentDocument) {
+        diff(previousDocument, currentDocument, fieldPath, operations);
+      } else if (!Objects.equals(previousValue, entry.getValue())) {
+        operations.add(set(fieldPath, entry.getValue()));
+      }
+    }
+    for (final String key : previous.keySet()) {
+      if (!current.containsKey(key)) {
+        operations.add(new Document(OP, OP_UNSET).append(PATH, append(path, key)));
+      }
+    }
+  }
+
+  // Applies the diff on a deep copy of given document
+  static Document apply(final Document document, final List<Document> operations) {
+    final Document result = copy(document);
+    for (final Document operation : operations) {
+      final List<String> path = operation.getList(PATH, String.class);
+      Document parent = result;
+      for (final String key : path.subList(0, path.size() - 1)) {
+        if (!(parent.get(key) instanceof Document child)) {
+          final Document created = new Document();
+          parent.put(key, created);
+          parent = created;
+        } else {
+          parent = child;
+        }
+      }
+      final String field = path.get(path.size() - 1);
+      if (OP_SET.equals(operation.getString(OP))) {
+        parent.put(field, operation.get(VALUE));
+      } else {
+        parent.remove(field);
+      }
+    }
+    return result;
+  }
+
+  private static Document copy(final Document document) {
+    final Document copy = new Document();
+    document.forEach(
+        (key, value) -> copy.put(key, value instanceof Document child ? copy(child) : value));
+    return copy;
+  }
+
+  private static Document set(final List<String> path, final Object value) {
+    return new Document(OP, OP_SET).append(PATH, path).append(VALUE, value);
+  }
+
+  private static List<String> append(final List<String> path, final String key) {
+    final List<String> fieldPath = new ArrayList<>(path.size() + 1);
+    fieldPath.addAll(path);
+    fieldPath.add(key);
+    return fieldPath;
+  }
+}
@@ -0,0 +1,250 @@
+package com.ksoot.mongodb;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.stereotype.Component;
+
+/**
+ * Decouples Auditing without Transactions from MongoDB write stalls, when {@code
+ * application.mongodb.auditing.journal.enabled} is {@code true}. If an Audit write fails because
+ * MongoDB is unavailable, or takes longer than {@code latency-budget}, Auditing switches to
+ * degraded mode, in which Audit records are appended to a local {@link AuditJournal} instead.
+ * A background replayer writes journaled Audit records to their Audit collections and switches
+ * back to normal mode once the journal is drained, so Audit records are written in order.
+ *
+ * <p>The latency budget is enforced as a timeout: Audit writes run on a writer thread and the
+ * calling thread waits for no longer than the budget, so a MongoDB stall does not hold request
+ * threads for the driver timeouts. Audit records of a write timing out are journaled while the
+ * write may still complete in the background.
+ *
+ * <p>Audit record ids are assigned before the first write attempt and records already present in
+ * their Audit collection are skipped on replay, so replay is idempotent, including for writes
+ * which completed after timing out. Revisions of journaled
+ * Audit records are allocated when they are replayed. Degraded mode and journal activity are
+ * exposed in metrics {@code mongodb.audit.journal.degraded}, {@code
+ * mongodb.audit.journal.appended} and {@code mongodb.audit.journal.replayed}.
+ *
+ * @author Rajveer Singh
+ */
+@Component
+@ConditionalOnProperty(
+    prefix = "application.mongodb.auditing",
+    name = "enabled",
+    havingValue = "true")
+@Slf4j
+class JournalingAuditWriter implements InitializingBean, DisposableBean {
+
+  private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec();
+
+  private final MongoAuditProperties.Auditing.Journal journalProperties;
+
+  private final MongoOperations mongoOperations;
+
+  private final AuditEventWriter auditEventWriter;
+
+  private final AuditRetryPolicy auditRetryPolicy;
+
+  private final MeterRegistry meterRegistry;
+
+  private final AtomicBoolean degraded = new AtomicBoolean();
+
+  private AuditJournal journal;
+
+  private ExecutorService writer;
+
+  private Counter appendedCounter;
+
+  private Counter replayedCounter;
+
+  private volatile boolean running;
+
+  private Thread replayer;
+
+  JournalingAuditWriter(
+      final MongoAuditProperties mongoAuditProperties,
+      final MongoOperations mongoOperations,
+      final AuditEventWriter auditEventWriter,
+      final AuditRetryPolicy auditRetryPolicy,
+      final MeterRegistry meterRegistry) {
+    this.journalProperties = mongoAuditProperties.getAuditing().getJournal();
+    this.mongoOperations = mongoOperations;
+    this.auditEventWriter = auditEventWriter;
+    this.auditRetryPolicy = auditRetryPolicy;
+    this.meterRegistry = meterRegistry;
+  }
+
+  boolean isEnabled() {
+    return this.journalProperties.isEnabled();
+  }
+
+  // Writes Audit records of a Source collection, or journals them if MongoDB is stalling
+  void write(final List<AuditEvent> auditEvents, final AuditMetaData.Metadata metadata) {
+    final List<AuditEvent> identifiedAuditEvents = identify(auditEvents);
+    if (this.degraded.get()) {
+      this.append(identifiedAuditEvents);
+      return;
+    }
+    final Future<?> write =
+        this.writer.submit(
+            () ->
+                this.auditRetryPolicy.execute(
+                    metadata,
+                    identifiedAuditEvents.get(0).getCollectionName(),
+                    () -> this.auditEventWriter.write(identifiedAuditEvents)));
+    try {
+      write.get(this.journalProperties.getLatencyBudget().toNanos(), TimeUnit.NANOSECONDS);
+    } catch (final TimeoutException e) {
+      // Not cancelled, interrupting the driver would close the connection
+      this.degrade(
+          "Audit write exceeded latency budget of " + this.journalProperties.getLatencyBudget(),
+          null);
+      this.append(identifiedAuditEvents);
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof DataAccessException exception) {
+        this.degrade("Audit write failed", exception);
+        this.append(identifiedAuditEvents);
+      } else if (e.getCause() instanceof RuntimeException exception) {
+        throw exception;
+      } else {
+        throw new IllegalStateException("Audit write failed", e.getCause());
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      this.append(identifiedAuditEvents);
+    }
+  }
+
+  // Journals Audit records which could not be written otherwise, e.g. by AsyncAuditWriter
+  void append(final List<AuditEvent> auditEvents) {
+    final List<byte[]> records = new ArrayList<>(auditEvents.size());
+    for (final AuditEvent auditEvent : identify(auditEvents)) {
+      final Document document = new Document();
+      this.mongoOperations.getConverter().write(auditEvent, document);
+      final ByteBuffer bson = new RawBsonDocument(document, DOCUMENT_CODEC).getByteBuffer().asNIO();
+      final byte[] record = new byte[bson.remaining()];
+      bson.get(record);
+      records.add(record);
+    }
+    this.journal.append(records);
+    this.appendedCounter.increment(records.size());
+  }
+
+  private void degrade(final String reason, final Exception exception) {
+    if (this.degraded.compareAndSet(false, true)) {
+      log.warn(reason + ", journaling Audit records until MongoDB recovers", exception);
+    }
+  }
+
+  private static List<AuditEvent> identify(final List<AuditEvent> auditEvents) {
+    return auditEvents.stream().map(JournalingAuditWriter::identify).toList();
+  }
+
+  // Pre-assigned ids make retries and replays of the same Audit record idempotent
+  static AuditEvent identify(final AuditEvent auditEvent) {
+    return auditEvent.getId() != null
+        ? auditEvent
+        : auditEvent.withId(new ObjectId().toHexString());
+  }
+
+  private void replay() {
+    while (this.running) {
+      try {
+        final AuditJournal.Batch batch =
+            this.journal.read(this.journalProperties.getReplayBatchSize());
+        if (batch.records().isEmpty()) {
+          if (this.journal.isEmpty() && this.degraded.compareAndSet(true, false)) {
+            log.info("Audit journal replayed, writing Audit records to MongoDB again");
+          }
+          Thread.sleep(this.journalProperties.getReplayInterval().toMillis());
+          continue;
+        }
+        final List<AuditEvent> auditEvents =
+            batch.records().stream()
+                .map(
+                    record ->
+                        this.mongoOperations
+                            .getConverter()
+                            .read(
+                                AuditEvent.class,
+                                new RawBsonDocument(record).decode(DOCUMENT_CODEC)))
+                .toList();
+        final List<AuditEvent> pending = this.auditEventWriter.notWritten(auditEvents);
+        if (!pending.isEmpty()) {
+          this.auditEventWriter.write(pending);
+        }
+        this.journal.acknowledge(batch);
+        this.replayedCounter.increment(pending.size());
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        this.running = false;
+      } catch (final RuntimeException e) {
+        log.error("Audit journal replay failed, retrying", e);
+        try {
+          Thread.sleep(this.journalProperties.getReplayInterval().toMillis());
+        } catch (final InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          this.running = false;
+        }
+      }
+    }
+  }
+
+  @Override
+  public void afterPropertiesSet() {
+    if (this.isEnabled()) {
+      this.journal =
+          new AuditJournal(
+              Path.of(this.journalProperties.getDirectory()),
+              (int) this.journalProperties.getSegmentSize().toBytes());
+      this.appendedCounter = this.meterRegistry.counter("mongodb.audit.journal.appended");
+      this.replayedCounter = this.meterRegistry.counter("mongodb.audit.journal.replayed");
+      this.meterRegistry.gauge(
+          "mongodb.audit.journal.degraded", this.degraded, degraded -> degraded.get() ? 1 : 0);
+      // Audit records journaled before restart are replayed before new ones are written
+      this.degraded.set(!this.journal.isEmpty());
+      this.writer =
+          Executors.newCachedThreadPool(
+              new ThreadFactoryBuilder()
+                  .setNameFormat("mongodb-audit-writer-%d")
+                  .setDaemon(true)
+                  .build());
+      this.running = true;
+      this.replayer = new Thread(this::replay, "mongodb-audit-journal-replayer");
+      this.replayer.setDaemon(true);
+      this.replayer.start();
+    }
+  }
+
+  @Override
+  public void destroy() throws InterruptedException {
+    if (this.replayer != null) {
+      // Audit records not yet replayed remain in the journal, to be replayed after restart
+      this.running = false;
+      this.replayer.join(this.journalProperties.getReplayInterval().multipliedBy(2).toMillis());
+      this.writer.shutdown();
+      this.journal.close();
+    }
+  }
+}
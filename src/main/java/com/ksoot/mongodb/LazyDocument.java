@@ -0,0 +1,161 @@
+package com.ksoot.mongodb;
+
+import java.io.Serial;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+
+/**
+ * {@link Document} backed by raw BSON, decoded on first access. Snapshots of Audit records read
+ * through {@link AuditEventCodec} are only decoded if accessed, e.g. rebuilt from deltas, and are
+ * otherwise passed through as raw BSON, e.g. when written again or serialized to JSON.
+ *
+ * <p>Serialized as a plain {@link Document} of the decoded fields, the raw BSON is transient.
+ *
+ * @author Rajveer Singh
+ */
+final class LazyDocument extends Document {
+
+  @Serial private static final long serialVersionUID = 1L;
+
+  private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec();
+
+  private transient volatile RawBsonDocument raw;
+
+  LazyDocument(final RawBsonDocument raw) {
+    this.raw = raw;
+  }
+
+  @Serial
+  private Object writeReplace() {
+    return new Document(this);
+  }
+
+  // Raw BSON if not yet decoded, otherwise null
+  RawBsonDocument raw() {
+    return this.raw;
+  }
+
+  private void decode() {
+    if (this.raw != null) {
+      synchronized (this) {
+        final RawBsonDocument pending = this.raw;
+        if (pending != null) {
+          super.putAll(pending.decode(DOCUMENT_CODEC));
+          this.raw = null;
+        }
+      }
+    }
+  }
+
+  @Override
+  public Document append(final String key, final Object value) {
+    this.decode();
+    return super.append(key, value);
+  }
+
+  @Override
+  public <T> T get(final Object key, final Class<T> clazz) {
+    this.decode();
+    return super.get(key, clazz);
+  }
+
+  @Override
+  public <T> T get(final Object key, final T defaultValue) {
+    this.decode();
+    return super.get(key, defaultValue);
+  }
+
+  @Override
+  public int size() {
+    this.decode();
+    return super.size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    this.decode();
+    return super.isEmpty();
+  }
+
+  @Override
+  public boolean containsValue(final Object value) {
+    this.decode();
+    return super.containsValue(value);
+  }
+
+  @Override
+  public boolean containsKey(final Object key) {
+    this.decode();
+    return super.containsKey(key);
+  }
+
+  @Override
+  public Object get(final Object key) {
+    this.decode();
+    return super.get(key);
+  }
+
+  @Override
+  public Object put(final String key, final Object value) {
+    this.decode();
+    return super.put(key, value);
+  }
+
+  @Override
+  public Object remove(final Object key) {
+    this.decode();
+    return super.remove(key);
+  }
+
+  @Override
+  public void putAll(final Map<? extends String, ?> map) {
+    this.decode();
+    super.putAll(map);
+  }
+
+  @Override
+  public void clear() {
+    this.decode();
+    super.clear();
+  }
+
+  @Override
+  public Set<String> keySet() {
+    this.decode();
+    return super.keySet();
+  }
+
+  @Override
+  public Collection<Object> values() {
+    this.decode();
+    return super.values();
+  }
+
+  @Override
+  public Set<Map.Entry<String, Object>> entrySet() {
+    this.decode();
+    return super.entrySet();
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    this.decode();
+    return super.equals(o);
+  }
+
+  @Override
+  public int hashCode() {
+    this.decode();
+    return super.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    this.decode();
+    return super.toString();
+  }
+}
@@ -2,28 +2,33 @@ package com.ksoot.mongodb;
 
 import static org.springframework.data.mongodb.core.query.SerializationUtils.serializeToJsonSafely;
 
-import com.ksoot.common.CommonConstants;
+import com.mongodb.client.model.CreateCollectionOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.TimeSeriesOptions;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.bson.Document;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.context.event.EventListener;
-import org.springframework.dao.DuplicateKeyException;
-import org.springframework.data.domain.Sort;
 import org.springframework.data.mapping.context.MappingContext;
 import org.springframework.data.mongodb.core.MongoOperations;
-import org.springframework.data.mongodb.core.index.Index;
-import org.springframework.data.mongodb.core.mapping.BasicMongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
 import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
 import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
-import org.springframework.data.mongodb.core.query.Criteria;
-import org.springframework.data.mongodb.core.query.Query;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.data.mongodb.core.mapping.event.BeforeDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.MongoMappingEvent;
 import org.springframework.util.Assert;
 
 @Configuration
@@ -33,7 +38,15 @@ import org.springframework.util.Assert;
     havingValue = "true")
 @Slf4j
 @RequiredArgsConstructor
-public class MongoAuditListener implements InitializingBean {
+public class MongoAuditListener
+    implements ApplicationListener<MongoMappingEvent<?>>, InitializingBean {
+
+  private static final String TIME_FIELD = "datetime";
+
+  // Buckets per Source collection. Source document id is not part of the meta field, as most
+  // documents change only a few times and buckets per document would defeat bucket compression,
+  // document history is served by the secondary index on (collectionName, source._id, datetime)
+  private static final String META_FIELD = "collectionName";
 
   private final MongoAuditProperties mongoAuditProperties;
 
@@ -41,98 +54,100 @@ public class MongoAuditListener implements InitializingBean {
 
   private final AuditMetaData auditMetaData;
 
-  @EventListener(condition = "@auditMetaData.isPresent(#event.getCollectionName())")
-  public void onAfterSave(final AfterSaveEvent<?> event) {
+  private final AuditRevisionSequence auditRevisionSequence;
+
+  private final AuditRecorder auditRecorder;
+
+  private final AuditIndexProvisioner auditIndexProvisioner;
+
+  // Ids of the documents being removed by the current thread, between the removal events
+  private final ThreadLocal<PendingRemoval> pendingRemoval = new ThreadLocal<>();
+
+  // Events of non audited collections, including the Audit record inserts themselves, cost one
+  // lookup in the immutable AuditMetaData registry
+  @Override
+  public void onApplicationEvent(final MongoMappingEvent<?> event) {
+    if (event instanceof AfterSaveEvent<?> afterSaveEvent) {
+      final AuditMetaData.Metadata metadata =
+          this.auditMetaData.get(afterSaveEvent.getCollectionName());
+      if (metadata != null) {
+        this.onAfterSave(afterSaveEvent, metadata);
+      }
+    } else if (event instanceof BeforeDeleteEvent<?> beforeDeleteEvent) {
+      if (this.auditMetaData.isPresent(beforeDeleteEvent.getCollectionName())
+          && this.auditRecorder.isRecording()) {
+        this.onBeforeDelete(beforeDeleteEvent);
+      }
+    } else if (event instanceof AfterDeleteEvent<?> afterDeleteEvent) {
+      final AuditMetaData.Metadata metadata =
+          this.auditMetaData.get(afterDeleteEvent.getCollectionName());
+      if (metadata != null) {
+        this.onAfterDelete(afterDeleteEvent, metadata);
+      }
+    }
+  }
+
+  private void onAfterSave(final AfterSaveEvent<?> event, final AuditMetaData.Metadata metadata) {
     if (log.isDebugEnabled()) {
       log.debug(
           String.format(
               "onAfterSave: %s, %s",
               event.getSource(), serializeToJsonSafely(event.getDocument())));
     }
-    this.createAuditEntryOnAfterSave(event, 0);
+    this.auditRecorder.record(
+        AuditEvent.ofSaveEvent(
+            event,
+            null,
+            this.auditRecorder.currentActor(),
+            Optional.ofNullable(metadata.versionProperty())),
+        metadata);
   }
 
-  private AuditEvent createAuditEntryOnAfterSave(final AfterSaveEvent<?> event, final int attempt) {
-    if (this.validateTransaction()) {
-      String auditCollectionName =
-          this.auditMetaData.getAuditCollection(event.getCollectionName()).get();
-      try {
-        Query query = new Query(Criteria.where("collectionName").is(event.getCollectionName()));
-        long revision = this.mongoOperations.count(query, auditCollectionName) + 1;
-        final AuditEvent auditEvent =
-            AuditEvent.ofSaveEvent(
-                event,
-                revision,
-                this.getAuditUserName(),
-                this.auditMetaData.getVersionProperty(event.getCollectionName()));
-        return this.mongoOperations.insert(auditEvent, auditCollectionName);
-      } catch (final DuplicateKeyException exception) {
-        if (attempt > 2) { // Max three attempts
-          throw new IllegalStateException(
-              "Non recoverable Race condition in MongoDB Auditing, "
-                  + "while getting next revision number for collection: '"
-                  + auditCollectionName
-                  + "'");
-        }
-        return createAuditEntryOnAfterSave(event, attempt + 1);
-      }
-    } else {
-      throw new IllegalStateException(
-          "No active transaction while MongoDB Auditing. Try updating collection: '"
-              + event.getCollectionName()
-              + "' in a Transaction");
-    }
+  // Ids of documents matching the removal query, read in the same Transaction if any, before
+  // they are removed. Read on the driver collection, as the query of the event is already mapped
+  private void onBeforeDelete(final BeforeDeleteEvent<?> event) {
+    final List<Object> ids = new ArrayList<>();
+    this.mongoOperations.execute(
+        event.getCollectionName(),
+        collection ->
+            collection
+                .find(event.getDocument())
+                .projection(new Document("_id", 1))
+                .map(document -> document.get("_id"))
+                .into(ids));
+    this.pendingRemoval.set(new PendingRemoval(event.getDocument(), ids));
   }
 
-  @EventListener(condition = "@auditMetaData.isPresent(#event.getCollectionName())")
-  public void onAfterDelete(final AfterDeleteEvent<?> event) {
+  private void onAfterDelete(
+      final AfterDeleteEvent<?> event, final AuditMetaData.Metadata metadata) {
     if (log.isDebugEnabled()) {
       log.debug(
           String.format(
               "onAfterDelete: %s, %s",
               event.getSource(), serializeToJsonSafely(event.getDocument())));
     }
-    this.createAuditEntryOnAfterDelete(event, 0);
-  }
-
-  private AuditEvent createAuditEntryOnAfterDelete(
-      final AfterDeleteEvent<?> event, final int attempt) {
-    if (this.validateTransaction()) {
-      String auditCollectionName =
-          this.auditMetaData.getAuditCollection(event.getCollectionName()).get();
-      try {
-        Query query = new Query(Criteria.where("collectionName").is(event.getCollectionName()));
-        long revision = this.mongoOperations.count(query, auditCollectionName) + 1;
-        final AuditEvent auditEvent =
-            AuditEvent.ofDeleteEvent(event, revision, this.getAuditUserName());
-        return this.mongoOperations.insert(auditEvent, auditCollectionName);
-      } catch (final DuplicateKeyException exception) {
-        if (attempt > 2) { // Max three attempts
-          throw new IllegalStateException(
-              "Non recoverable Race condition in MongoDB Auditing, "
-                  + "while getting next revision number for collection: '"
-                  + auditCollectionName
-                  + "'");
-        }
-        return createAuditEntryOnAfterDelete(event, attempt + 1);
-      }
-    } else {
-      throw new IllegalStateException(
-          "No active transaction while MongoDB Auditing. Try updating collection: '"
-              + event.getCollectionName()
-              + "' in a Transaction");
+    final PendingRemoval pendingRemoval = this.pendingRemoval.get();
+    this.pendingRemoval.remove();
+    // Both events of a removal are published on the removing thread with the same query
+    if (pendingRemoval == null
+        || pendingRemoval.query() != event.getDocument()
+        || pendingRemoval.ids().isEmpty()) {
+      return;
     }
-  }
-
-  private boolean validateTransaction() {
-    return this.mongoAuditProperties.getAuditing().isWithoutTransaction()
-        || TransactionSynchronizationManager.isActualTransactionActive();
-  }
-
-  private String getAuditUserName() {
-    return Optional.ofNullable(SecurityContextHolder.getContext().getAuthentication())
-        .map(Authentication::getName)
-        .orElse(CommonConstants.SYSTEM_USER);
+    final String actor = this.auditRecorder.currentActor();
+    this.auditRecorder.record(
+        pendingRemoval.ids().stream()
+            .map(
+                id ->
+                    AuditEvent.of(
+                        AuditEvent.Type.DELETED,
+                        event.getTimestamp(),
+                        null,
+                        event.getCollectionName(),
+                        new Document("_id", id),
+                        actor))
+            .toList(),
+        metadata);
   }
 
   @Override
@@ -143,40 +158,121 @@ public class MongoAuditListener implements InitializingBean {
       throw new IllegalArgumentException(
           "At-least one of 'mongodb.auditing.prefix' or 'mongodb.auditing.suffix' properties must not be null or empty");
     }
-    MappingContext<?, ?> mappingContext = this.mongoOperations.getConverter().getMappingContext();
-    mappingContext.getPersistentEntities().stream()
-        .forEach(
-            entity ->
-                this.getAuditableAnnotation((BasicMongoPersistentEntity) entity)
-                    .ifPresent(
-                        auditable -> {
-                          String collectionName =
-                              ((BasicMongoPersistentEntity) entity).getCollection();
-                          String versionProperty =
-                              entity.hasVersionProperty()
-                                  ? ((BasicMongoPersistentEntity) entity)
-                                      .getVersionProperty()
-                                      .getName()
-                                  : null;
-
-                          String auditCollectionName;
-                          if (StringUtils.isNotBlank(auditable.name())) {
-                            auditCollectionName = auditable.name();
-                          } else {
-                            auditCollectionName =
-                                this.mongoAuditProperties.getAuditing().getPrefix()
-                                    + collectionName
-                                    + this.mongoAuditProperties.getAuditing().getSuffix();
-                          }
-                          this.createAuditCollectionIfDoesNotExist(auditCollectionName);
-
-                          this.auditMetaData.put(
-                              collectionName,
-                              AuditMetaData.Metadata.of(auditCollectionName, versionProperty));
-                        }));
+    if (this.mongoAuditProperties.getAuditing().getTimeSeries().isEnabled()
+        && !this.supportsTimeSeries()) {
+      throw new IllegalArgumentException(
+          "Time-series Audit collections can not be written in Transactions, "
+              + "'mongodb.auditing.time-series.enabled' requires "
+              + "'mongodb.auditing.without-transaction' or CHANGE_STREAM engine");
+    }
+    this.auditRevisionSequence.createSequenceCollectionIfDoesNotExist();
+    this.register(this.mongoOperations.getConverter().getMappingContext().getPersistentEntities());
+  }
+
+  /**
+   * Registers entity classes annotated with {@link Auditable} at runtime, e.g. entities of
+   * collections created after application startup. Their Audit collections are prepared before
+   * the metadata of all given classes is published at once, so the classes start being audited
+   * together. Already registered collections are re-registered with the new metadata.
+   *
+   * @param entityClasses entity classes to be audited
+   */
+  public void register(final Class<?>... entityClasses) {
+    final MappingContext<? extends MongoPersistentEntity<?>, ?> mappingContext =
+        this.mongoOperations.getConverter().getMappingContext();
+    this.register(
+        Arrays.stream(entityClasses)
+            .<MongoPersistentEntity<?>>map(mappingContext::getRequiredPersistentEntity)
+            .toList());
+  }
+
+  private synchronized void register(
+      final Collection<? extends MongoPersistentEntity<?>> entities) {
+    // Revision uniqueness is enforced per Audit collection, so all Source collections sharing an
+    // Audit collection must use the same scope, including already registered ones
+    final Map<String, Auditable.RevisionScope> auditCollectionScopes = new HashMap<>();
+    for (final String collectionName : this.auditMetaData.getCollectionNames()) {
+      final AuditMetaData.Metadata registered = this.auditMetaData.get(collectionName);
+      auditCollectionScopes.put(registered.auditCollectionName(), registered.revisionScope());
+    }
+    final Map<String, AuditMetaData.Metadata> metadata = new HashMap<>();
+    for (final MongoPersistentEntity<?> entity : entities) {
+      this.getAuditableAnnotation(entity)
+          .ifPresent(
+              auditable -> {
+                String collectionName = entity.getCollection();
+                String versionProperty =
+                    entity.hasVersionProperty() ? entity.getVersionProperty().getName() : null;
+
+                String auditCollectionName;
+                if (StringUtils.isNotBlank(auditable.name())) {
+                  auditCollectionName = auditable.name();
+                } else {
+                  auditCollectionName =
+                      this.mongoAuditProperties.getAuditing().getPrefix()
+                          + collectionName
+                          + this.mongoAuditProperties.getAuditing().getSuffix();
+                }
+                Auditable.RevisionScope sharedScope =
+                    auditCollectionScopes.putIfAbsent(
+                        auditCollectionName, auditable.revisionScope());
+                if (sharedScope != null && sharedScope != auditable.revisionScope()) {
+                  throw new IllegalStateException(
+                      "Conflicting revision scopes: "
+                          + sharedScope
+                          + " and "
+                          + auditable.revisionScope()
+                          + " for Audit collection: '"
+                          + auditCollectionName
+                          + "'");
+                }
+                this.createAuditCollectionIfDoesNotExist(auditCollectionName);
+                final Document timeSeriesOptions = this.timeSeriesOptions(auditCollectionName);
+                final boolean timeSeries = timeSeriesOptions != null;
+                if (timeSeries) {
+                  this.checkTimeSeries(auditCollectionName, auditable.revisionScope());
+                }
+                this.auditIndexProvisioner.provision(
+                    auditCollectionName, auditable.revisionScope(), timeSeries);
+                if (auditable.revisionScope() == Auditable.RevisionScope.COLLECTION) {
+                  this.auditRevisionSequence.seed(auditCollectionName, collectionName);
+                }
+
+                metadata.put(
+                    collectionName,
+                    new AuditMetaData.Metadata(
+                        auditCollectionName,
+                        versionProperty,
+                        auditable.revisionScope(),
+                        auditable.storage(),
+                        auditable.compression() == Auditable.Compression.DEFAULT
+                            ? this.mongoAuditProperties
+                                .getAuditing()
+                                .getCompression()
+                                .getAlgorithm()
+                            : auditable.compression(),
+                        this.compileProjection(entity, auditable),
+                        timeSeries,
+                        timeSeries
+                            ? this.ensureRetention(auditCollectionName, timeSeriesOptions)
+                            : null));
+              });
+    }
+    this.auditMetaData.register(metadata);
   }
 
-  private Optional<Auditable> getAuditableAnnotation(final BasicMongoPersistentEntity<?> entity) {
+  private AuditProjection compileProjection(
+      final MongoPersistentEntity<?> entity, final Auditable auditable) {
+    try {
+      return AuditProjection.of(
+          entity, auditable, this.mongoOperations.getConverter().getMappingContext());
+    } catch (final IllegalArgumentException e) {
+      throw new IllegalStateException(
+          "Invalid Audit projection of collection: '" + entity.getCollection() + "'", e);
+    }
+  }
+
+  private Optional<Auditable> getAuditableAnnotation(final MongoPersistentEntity<?> entity) {
     // Ideally following line should work, but not working, so getting the annotation from Class
     //        return Optional.ofNullable(AnnotationUtils.findAnnotation(entity.getType(),
     // Auditable.class));
@@ -189,22 +285,92 @@ public class MongoAuditListener implements InitializingBean {
     }
   }
 
-  // Create Audit collection and indexes if it does not exist
+  // Create Audit collection if it does not exist, indexes are provisioned separately
   private void createAuditCollectionIfDoesNotExist(final String auditCollectionName) {
     if (!this.mongoOperations.collectionExists(auditCollectionName)) {
-      log.info("Created Audit collection: " + auditCollectionName);
-      this.mongoOperations.createCollection(auditCollectionName);
+      if (this.mongoAuditProperties.getAuditing().getTimeSeries().isEnabled()) {
+        log.info("Created time-series Audit collection: " + auditCollectionName);
+        this.createTimeSeriesCollection(auditCollectionName);
+      } else {
+        log.info("Created Audit collection: " + auditCollectionName);
+        this.mongoOperations.createCollection(auditCollectionName);
+      }
+    }
+  }
+
+  // Audit records are bucketed per Source collection and ordered by datetime
+  private void createTimeSeriesCollection(final String auditCollectionName) {
+    final MongoAuditProperties.Auditing.TimeSeries timeSeries =
+        this.mongoAuditProperties.getAuditing().getTimeSeries();
+    final CreateCollectionOptions options =
+        new CreateCollectionOptions()
+            .timeSeriesOptions(
+                new TimeSeriesOptions(TIME_FIELD)
+                    .metaField(META_FIELD)
+                    .granularity(timeSeries.getGranularity()));
+    if (timeSeries.getExpireAfter() != null) {
+      options.expireAfter(timeSeries.getExpireAfter().toSeconds(), TimeUnit.SECONDS);
+    }
+    this.mongoOperations.execute(
+        database -> {
+          database.createCollection(auditCollectionName, options);
+          return null;
+        });
+  }
 
-      Index indexDatetime = new Index().named("idx_datetime").on("datetime", Sort.Direction.ASC);
-      this.mongoOperations.indexOps(auditCollectionName).ensureIndex(indexDatetime);
+  // Collection options of the Audit collection if it is a time-series collection, otherwise null
+  private Document timeSeriesOptions(final String auditCollectionName) {
+    final Document collection =
+        this.mongoOperations.execute(
+            database ->
+                database.listCollections().filter(Filters.eq("name", auditCollectionName)).first());
+    return collection != null && "timeseries".equals(collection.getString("type"))
+        ? collection.get("options", Document.class)
+        : null;
+  }
+
+  private boolean supportsTimeSeries() {
+    return this.mongoAuditProperties.getAuditing().isWithoutTransaction()
+        || this.mongoAuditProperties.getAuditing().getEngine()
+            == MongoAuditProperties.Engine.CHANGE_STREAM;
+  }
 
-      Index indexActor = new Index().named("idx_actor").on("actor", Sort.Direction.ASC);
-      this.mongoOperations.indexOps(auditCollectionName).ensureIndex(indexActor);
+  // Time-series collections support neither unique indexes nor writes in Transactions
+  private void checkTimeSeries(
+      final String auditCollectionName, final Auditable.RevisionScope revisionScope) {
+    if (revisionScope == Auditable.RevisionScope.DOCUMENT) {
+      throw new IllegalStateException(
+          "Revision scope: DOCUMENT is not supported by time-series Audit collection: '"
+              + auditCollectionName
+              + "'");
+    }
+    if (!this.supportsTimeSeries()) {
+      throw new IllegalStateException(
+          "Time-series Audit collection: '"
+              + auditCollectionName
+              + "' can not be written in Transactions, "
+              + "requires 'mongodb.auditing.without-transaction' or CHANGE_STREAM engine");
+    }
+  }
 
-      Index indexUnqRevision =
-          new Index().named("idx_unq_revision").on("revision", Sort.Direction.ASC)
-                  .on("collectionName", Sort.Direction.ASC).unique();
-      this.mongoOperations.indexOps(auditCollectionName).ensureIndex(indexUnqRevision);
+  // Applies configured expire-after to existing time-series collections and returns the retention
+  private Duration ensureRetention(final String auditCollectionName, final Document options) {
+    final Duration expireAfter =
+        this.mongoAuditProperties.getAuditing().getTimeSeries().getExpireAfter();
+    final Duration retention =
+        options.get("expireAfterSeconds") instanceof Number seconds
+            ? Duration.ofSeconds(seconds.longValue())
+            : null;
+    if (expireAfter != null && !expireAfter.equals(retention)) {
+      log.info(
+          "Changing retention of Audit collection: " + auditCollectionName + " to " + expireAfter);
+      this.mongoOperations.executeCommand(
+          new Document("collMod", auditCollectionName)
+              .append("expireAfterSeconds", expireAfter.toSeconds()));
+      return expireAfter;
     }
+    return retention;
   }
+
+  private record PendingRemoval(Document query, List<Object> ids) {}
 }
@@ -1,6 +1,13 @@
 package com.ksoot.mongodb;
 
+import com.mongodb.client.model.TimeSeriesGranularity;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import java.time.Duration;
 import java.util.List;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
@@ -8,6 +15,7 @@ import lombok.Setter;
 import lombok.ToString;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
 
 /**
  * @author Rajveer Singh
@@ -57,5 +65,348 @@ public class MongoAuditProperties {
      * Default: "", Audit collection name suffix.
      */
     private String suffix = "_aud";
+
+    /**
+     * Default: "audit_revisions", Collection holding the Audit revision counters.
+     */
+    private String revisionSequenceCollection = "audit_revisions";
+
+    /**
+     * Default: 1, Number of revisions reserved at once per Audit collection and Source collection
+     * by each application instance. More than 1 saves the revision round trip on most writes, at
+     * the cost of gaps in revisions, and revisions of different instances no longer follow time.
+     */
+    @Positive private int revisionBlockSize = 1;
+
+    /**
+     * Default: LISTENER, Auditing engine, either Spring Data MongoDB event listeners or MongoDB
+     * change streams.
+     */
+    @NotNull private Engine engine = Engine.LISTENER;
+
+    private Async async = new Async();
+
+    private ChangeStream changeStream = new ChangeStream();
+
+    private Delta delta = new Delta();
+
+    private Compression compression = new Compression();
+
+    private Bulk bulk = new Bulk();
+
+    private Retry retry = new Retry();
+
+    private Journal journal = new Journal();
+
+    private Deduplication deduplication = new Deduplication();
+
+    private TimeSeries timeSeries = new TimeSeries();
+
+    private Archive archive = new Archive();
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @ToString
+    @Valid
+    class Async {
+
+      /**
+       * Default: false, Whether or not to write Audit records asynchronously, applicable only
+       * while Auditing without Transactions.
+       */
+      private boolean enabled = false;
+
+      /**
+       * Default: 10000, Maximum number of Audit records waiting to be written.
+       */
+      @Positive private int queueCapacity = 10000;
+
+      /**
+       * Default: 500, Maximum number of Audit records written in one bulk insert.
+       */
+      @Positive private int batchSize = 500;
+
+      /**
+       * Default: 1s, Maximum time an Audit record waits in queue before being written.
+       */
+      @NotNull private Duration flushInterval = Duration.ofSeconds(1);
+
+      /**
+       * Default: BLOCK, What to do with an Audit record when the queue is full.
+       */
+      @NotNull private Backpressure backpressure = Backpressure.BLOCK;
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @ToString
+    @Valid
+    class ChangeStream {
+
+      /**
+       * Default: "audit_checkpoints", Collection holding the resume token of last audited
+       * change.
+       */
+      private String checkpointCollection = "audit_checkpoints";
+
+      /**
+       * Default: 500, Maximum number of changes written as Audit records in one bulk insert.
+       */
+      @Positive private int batchSize = 500;
+
+      /**
+       * Default: 1s, Maximum time to wait for new changes before writing pending Audit records.
+       */
+      @NotNull private Duration maxAwaitTime = Duration.ofSeconds(1);
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @ToString
+    @Valid
+    class Delta {
+
+      /**
+       * Default: 10, A full snapshot is written every given number of revisions of a document
+       * audited with DELTA storage.
+       */
+      @Positive private int keyframeInterval = 10;
+
+      /**
+       * Default: 10000, Maximum number of documents whose last audited state is cached to compute
+       * diffs. A document not in cache gets a full snapshot.
+       */
+      @Positive private long cacheSize = 10000;
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @ToString
+    @Valid
+    class Compression {
+
+      /**
+       * Default: NONE, Compression algorithm of snapshots, unless specified in {@code Auditable}
+       * annotation.
+       */
+      @NotNull private Auditable.Compression algorithm = Auditable.Compression.NONE;
+
+      /**
+       * Default: 16KB, Snapshots of at least this size in BSON are compressed.
+       */
+      @NotNull private DataSize threshold = DataSize.ofKilobytes(16);
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @ToString
+    @Valid
+    class Bulk {
+
+      /**
+       * Default: 500, Number of documents written and audited per batch by set based operations of
+       * {@code AuditingMongoOperations}.
+       */
+      @Positive private int batchSize = 500;
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @ToString
+    @Valid
+    class Retry {
+
+      /**
+       * Default: 3, Maximum number of attempts to write an Audit record on revision conflicts,
+       * applicable only while Auditing without Transactions.
+       */
+      @Positive private int maxAttempts = 3;
+
+      /**
+       * Default: 10ms, Backoff before the first retry.
+       */
+      @NotNull private Duration initialBackoff = Duration.ofMillis(10);
+
+      /**
+       * Default: 500ms, Maximum backoff between retries.
+       */
+      @NotNull private Duration maxBackoff = Duration.ofMillis(500);
+
+      /**
+       * Default: 2.0, Factor the backoff is multiplied with after each retry.
+       */
+      @DecimalMin("1.0")
+      private double multiplier = 2.0;
+
+      /**
+       * Default: 0.5, Fraction of the backoff randomized, so that concurrent writers do not retry
+       * at the same time.
+       */
+      @DecimalMin("0.0")
+      @DecimalMax("1.0")
+      private double jitter = 0.5;
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @ToString
+    @Valid
+    class Journal {
+
+      /**
+       * Default: false, Whether or not to journal Audit records locally while MongoDB is
+       * unavailable or slow, applicable only while Auditing without Transactions.
+       */
+      private boolean enabled = false;
+
+      /**
+       * Default: "audit-journal", Directory of the journal segment files.
+       */
+      @NotEmpty private String directory = "audit-journal";
+
+      /**
+       * Default: 64MB, Size of each journal segment file.
+       */
+      @NotNull private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+      /**
+       * Default: 200ms, Audit writes taking longer are journaled and switch Auditing to the
+       * journal.
+       */
+      @NotNull private Duration latencyBudget = Duration.ofMillis(200);
+
+      /**
+       * Default: 1s, Interval at which the journal is checked for Audit records to replay.
+       */
+      @NotNull private Duration replayInterval = Duration.ofSeconds(1);
+
+      /**
+       * Default: 500, Maximum number of journaled Audit records replayed in one bulk insert.
+       */
+      @Positive private int replayBatchSize = 500;
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @ToString
+    @Valid
+    class Deduplication {
+
+      /**
+       * Default: AUDIT, What to do with Audit records of updates not changing the audited fields.
+       */
+      @NotNull private DuplicateHandling mode = DuplicateHandling.AUDIT;
+
+      /**
+       * Default: 10000, Maximum number of versioned documents whose last content hash is cached.
+       */
+      @Positive private long cacheSize = 10000;
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @ToString
+    @Valid
+    class TimeSeries {
+
+      /**
+       * Default: false, Whether or not to create new Audit collections as time-series collections.
+       * Requires Auditing without Transactions or CHANGE_STREAM engine.
+       */
+      private boolean enabled = false;
+
+      /**
+       * Default: SECONDS, Expected interval between Audit records of a Source collection, used by
+       * MongoDB to size the buckets.
+       */
+      @NotNull private TimeSeriesGranularity granularity = TimeSeriesGranularity.SECONDS;
+
+      /**
+       * Default: none, Audit records older than given duration are removed by MongoDB. Also
+       * applied to existing time-series Audit collections.
+       */
+      private Duration expireAfter;
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @ToString
+    @Valid
+    class Archive {
+
+      /**
+       * Default: false, Whether or not to move cold Audit records to local archive segment files.
+       */
+      private boolean enabled = false;
+
+      /**
+       * Default: "audit-archive", Directory of the archive segment files, with a sub directory per
+       * Audit collection.
+       */
+      @NotEmpty private String directory = "audit-archive";
+
+      /**
+       * Default: 90d, Audit records older than given duration are archived.
+       */
+      @NotNull private Duration age = Duration.ofDays(90);
+
+      /**
+       * Default: 1h, Interval at which Audit collections are checked for Audit records to
+       * archive.
+       */
+      @NotNull private Duration interval = Duration.ofHours(1);
+
+      /**
+       * Default: 10000, Maximum number of Audit records in one archive segment file.
+       */
+      @Positive private int segmentSize = 10000;
+
+      /**
+       * Default: 256, Number of Audit records compressed together in one block, the unit of the
+       * sparse index of a segment.
+       */
+      @Positive private int blockSize = 256;
+    }
+  }
+
+  public enum Engine {
+    /** Audit records are created from Spring Data MongoDB events, on the writing thread. */
+    LISTENER,
+    /**
+     * Audit records are created from MongoDB change streams by a background worker, capturing
+     * writes from any client. Requires a replica set.
+     */
+    CHANGE_STREAM
+  }
+
+  public enum DuplicateHandling {
+    /** Audit records of updates are written irrespective of changes, content is not hashed. */
+    AUDIT,
+    /**
+     * Audit records of updates not changing the audited fields are written with {@code
+     * duplicate: true}.
+     */
+    MARK,
+    /** Audit records of updates not changing the audited fields are not written. */
+    SKIP
+  }
+
+  public enum Backpressure {
+    /** Block the calling thread until there is space in queue. */
+    BLOCK,
+    /** Drop the Audit record and count it in metric {@code mongodb.audit.async.dropped}. */
+    DROP,
+    /** Spill the Audit record to a synchronous write on the calling thread. */
+    SPILL
   }
 }
@@ -47,6 +47,7 @@ class MongoDBConfig extends AbstractMongoClientConfiguration {
         .codecRegistry(
             CodecRegistries.fromRegistries(
                 CodecRegistries.fromCodecs(new OffsetDateTimeCodec(), new ZonedDateTimeCodec()),
+                CodecRegistries.fromProviders(new AuditEventCodec.Provider()),
                 MongoClientSettings.getDefaultCodecRegistry()));
   }
 
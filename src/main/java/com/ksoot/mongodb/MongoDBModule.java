@@ -7,7 +7,16 @@ import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.Module;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.mongodb.MongoClientSettings;
 import java.io.IOException;
+import java.util.Date;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonTypeClassMap;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.types.ObjectId;
 import org.springframework.stereotype.Component;
 
@@ -28,6 +37,7 @@ public final class MongoDBModule extends Module {
   public void setupModule(final SetupContext context) {
     final SimpleModule module = new SimpleModule();
     module.addSerializer(ObjectId.class, new ObjectIdSerializer());
+    module.addSerializer(LazyDocument.class, new LazyDocumentSerializer());
     module.setupModule(context);
   }
 
@@ -40,4 +50,75 @@ public final class MongoDBModule extends Module {
       json.writeString(objectId.toString());
     }
   }
+
+  // Snapshots not yet decoded are streamed from raw BSON to JSON, without building a Document
+  private final class LazyDocumentSerializer extends JsonSerializer<LazyDocument> {
+
+    private final CodecRegistry codecRegistry = MongoClientSettings.getDefaultCodecRegistry();
+
+    private final BsonTypeClassMap bsonTypeClassMap = new BsonTypeClassMap();
+
+    @Override
+    public void serialize(
+        final LazyDocument document, final JsonGenerator json, final SerializerProvider serializers)
+        throws IOException {
+      final RawBsonDocument raw = document.raw();
+      if (raw == null) {
+        serializers.findValueSerializer(Document.class).serialize(document, json, serializers);
+        return;
+      }
+      try (BsonReader reader = raw.asBsonReader()) {
+        this.writeDocument(reader, json, serializers);
+      }
+    }
+
+    private void writeDocument(
+        final BsonReader reader, final JsonGenerator json, final SerializerProvider serializers)
+        throws IOException {
+      reader.readStartDocument();
+      json.writeStartObject();
+      while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+        json.writeFieldName(reader.readName());
+        this.writeValue(reader, json, serializers);
+      }
+      reader.readEndDocument();
+      json.writeEndObject();
+    }
+
+    private void writeValue(
+        final BsonReader reader, final JsonGenerator json, final SerializerProvider serializers)
+        throws IOException {
+      final BsonType type = reader.getCurrentBsonType();
+      switch (type) {
+        case DOCUMENT -> this.writeDocument(reader, json, serializers);
+        case ARRAY -> {
+          reader.readStartArray();
+          json.writeStartArray();
+          while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            this.writeValue(reader, json, serializers);
+          }
+          reader.readEndArray();
+          json.writeEndArray();
+        }
+        case STRING -> json.writeString(reader.readString());
+        case INT32 -> json.writeNumber(reader.readInt32());
+        case INT64 -> json.writeNumber(reader.readInt64());
+        case DOUBLE -> json.writeNumber(reader.readDouble());
+        case BOOLEAN -> json.writeBoolean(reader.readBoolean());
+        case OBJECT_ID -> json.writeString(reader.readObjectId().toHexString());
+        case DATE_TIME -> serializers.defaultSerializeDateValue(
+            new Date(reader.readDateTime()), json);
+        case NULL -> {
+          reader.readNull();
+          json.writeNull();
+        }
+        // Rare types are decoded as by DocumentCodec and serialized as such
+        default -> serializers.defaultSerializeValue(
+            this.codecRegistry
+                .get(this.bsonTypeClassMap.get(type))
+                .decode(reader, DecoderContext.builder().build()),
+            json);
+      }
+    }
+  }
 }
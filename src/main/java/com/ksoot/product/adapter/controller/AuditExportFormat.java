@@ -0,0 +1,146 @@
+package com.ksoot.product.adapter.controller;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.ksoot.mongodb.AuditEvent;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.stream.Stream;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+
+/**
+ * Formats of Audit history exports. Audit records are written one at a time as they are read, so
+ * memory stays bounded irrespective of the number of Audit records exported.
+ *
+ * @author Rajveer Singh
+ */
+@Getter
+@RequiredArgsConstructor
+enum AuditExportFormat {
+  // One JSON Audit record per line, same as returned by Audit history API. Written by a single
+  // generator straight to the output stream, flushed only when its buffer is full
+  NDJSON(new MediaType("application", "x-ndjson"), "ndjson") {
+    @Override
+    void write(
+        final Iterator<AuditEvent> auditEvents,
+        final OutputStream outputStream,
+        final ObjectMapper mapper)
+        throws IOException {
+      final ObjectWriter writer =
+          mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+      // Not closed on failure, closing would complete a partially written Audit record
+      final JsonGenerator generator =
+          mapper
+              .getFactory()
+              .createGenerator(outputStream, JsonEncoding.UTF8)
+              .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      generator.setRootValueSeparator(null);
+      while (auditEvents.hasNext()) {
+        writer.writeValue(generator, auditEvents.next());
+        generator.writeRaw('\n');
+      }
+      generator.close();
+    }
+  },
+  // Snapshot and delta are written as JSON within their columns
+  CSV(new MediaType("text", "csv"), "csv") {
+    @Override
+    void write(
+        final Iterator<AuditEvent> auditEvents,
+        final OutputStream outputStream,
+        final ObjectMapper mapper)
+        throws IOException {
+      final Writer writer =
+          new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+      writer.write(
+          "id,datetime,actor,revision,type,collectionName,baseRevision,duplicate,source,delta\r\n");
+      while (auditEvents.hasNext()) {
+        this.writeRecord(writer, auditEvents.next(), mapper);
+      }
+      writer.flush();
+    }
+
+    private void writeRecord(
+        final Writer writer, final AuditEvent auditEvent, final ObjectMapper mapper)
+        throws IOException {
+      writer.write(csv(auditEvent.getId()));
+      writer.write(',');
+      writer.write(csv(auditEvent.getDatetime()));
+      writer.write(',');
+      writer.write(csv(auditEvent.getActor()));
+      writer.write(',');
+      writer.write(csv(auditEvent.getRevision()));
+      writer.write(',');
+      writer.write(csv(auditEvent.getType()));
+      writer.write(',');
+      writer.write(csv(auditEvent.getCollectionName()));
+      writer.write(',');
+      writer.write(csv(auditEvent.getBaseRevision()));
+      writer.write(',');
+      writer.write(csv(auditEvent.getDuplicate()));
+      writer.write(',');
+      writer.write(
+          csv(
+              Objects.nonNull(auditEvent.getSource())
+                  ? mapper.writeValueAsString(auditEvent.getSource())
+                  : null));
+      writer.write(',');
+      writer.write(
+          csv(
+              Objects.nonNull(auditEvent.getDelta())
+                  ? mapper.writeValueAsString(auditEvent.getDelta())
+                  : null));
+      writer.write("\r\n");
+    }
+  };
+
+  private final MediaType mediaType;
+
+  private final String extension;
+
+  /**
+   * Writes given Audit records to the output stream. An {@link IOException}, e.g. on client
+   * disconnect, stops the export, the caller closes the Audit records stream to release cursors.
+   *
+   * @param auditEvents Audit records to export
+   * @param outputStream response output stream
+   * @param mapper mapper to write Audit records and snapshots as JSON
+   */
+  void write(
+      final Stream<AuditEvent> auditEvents,
+      final OutputStream outputStream,
+      final ObjectMapper mapper)
+      throws IOException {
+    this.write(auditEvents.iterator(), outputStream, mapper);
+  }
+
+  abstract void write(
+      Iterator<AuditEvent> auditEvents, OutputStream outputStream, ObjectMapper mapper)
+      throws IOException;
+
+  // Quoted if it contains a delimiter, quote or line break, quotes are doubled as per RFC 4180
+  private static String csv(final Object value) {
+    if (Objects.isNull(value)) {
+      return "";
+    }
+    final String text = value.toString();
+    if (text.indexOf(',') < 0
+        && text.indexOf('"') < 0
+        && text.indexOf('\n') < 0
+        && text.indexOf('\r') < 0) {
+      return text;
+    }
+    return '"' + text.replace("\"", "\"\"") + '"';
+  }
+}
@@ -1,10 +1,13 @@
 package com.ksoot.product.adapter.controller;
 
 import static com.ksoot.common.ApiConstants.INTERNAL_SERVER_ERROR_EXAMPLE_RESPONSE;
+import static com.ksoot.common.CommonConstants.CURSOR_PARAM;
 import static com.ksoot.common.CommonConstants.DEFAULT_PAGE_SIZE;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ksoot.common.PaginatedResource;
 import com.ksoot.common.PaginatedResourceAssembler;
+import com.ksoot.common.TotalMode;
 import com.ksoot.mongodb.AuditEvent;
 import com.ksoot.product.domain.service.AuditHistoryService;
 import io.swagger.v3.oas.annotations.Operation;
@@ -14,26 +17,42 @@ import io.swagger.v3.oas.annotations.media.ExampleObject;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletResponse;
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springdoc.core.annotations.ParameterObject;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.web.PageableDefault;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.AsyncRequestTimeoutException;
+import org.springframework.web.context.request.async.WebAsyncTask;
 
 @RestController
 @RequestMapping("/v1/audit-history")
 @Tag(name = "Audit History", description = "query APIs")
 @RequiredArgsConstructor
+@Slf4j
 class AuditHistoryController {
 
+  // Exports stream for as long as there are Audit records, scoped to the export endpoint only
+  private static final Duration EXPORT_TIMEOUT = Duration.ofMinutes(30);
+
   private final AuditHistoryService auditHistoryService;
 
+  private final ObjectMapper objectMapper;
+
   @GetMapping
   @Operation(operationId = "get-audit-history", summary = "Gets a page of Audit History")
   @ApiResponses(
@@ -53,6 +72,9 @@ class AuditHistoryController {
               required = true)
           @RequestParam
           final String collectionName,
+      @Parameter(description = "Source document id. E.g. <b>6583d9a8f0c5b22a4c8f1a5e</b>")
+          @RequestParam(required = false)
+          final String documentId,
       @Parameter(description = "Audit Event type.") @RequestParam(required = false)
           final AuditEvent.Type type,
       @Parameter(description = "Audit Revisions.") @RequestParam(required = false)
@@ -65,10 +87,191 @@ class AuditHistoryController {
       @Parameter(description = "Till Datetime, Inclusive. E.g. <b>2023-12-22T13:57:13+05:30</b>")
           @RequestParam(required = false)
           final OffsetDateTime tillDateTime,
+      @Parameter(
+              description =
+                  "Whether to rebuild full snapshots of delta encoded Audit records. Default: false")
+          @RequestParam(defaultValue = "false")
+          final boolean fullSnapshot,
+      @Parameter(
+              description =
+                  "Cursor for keyset pagination, as returned in <b>nextCursor</b> of a page. "
+                      + "Pass empty to get the first page by keyset pagination, "
+                      + "sorted by <b>datetime</b> or <b>revision</b>, latest first by default. "
+                      + "Revisions follow time only with a revision block size of 1. "
+                      + "Page number is ignored if given")
+          @RequestParam(name = CURSOR_PARAM, required = false)
+          final String cursor,
+      @Parameter(
+              description =
+                  "How the total number of records is determined. <b>EXACT</b> counts all, "
+                      + "<b>ESTIMATED</b> counts up to 10000 records, <b>NONE</b> does not count "
+                      + "but tells if there is a next page. In keyset pagination only the first "
+                      + "page is counted. Default: EXACT")
+          @RequestParam(defaultValue = "EXACT")
+          final TotalMode total,
       @ParameterObject @PageableDefault(size = DEFAULT_PAGE_SIZE) final Pageable pageRequest) {
+    if (cursor != null) {
+      return PaginatedResourceAssembler.assemble(
+          this.auditHistoryService.getAuditHistory(
+              collectionName,
+              documentId,
+              type,
+              revisions,
+              actor,
+              fromDateTime,
+              tillDateTime,
+              fullSnapshot,
+              cursor,
+              pageRequest.getPageSize(),
+              pageRequest.getSort(),
+              total));
+    }
     final Page<AuditEvent> feePage =
         this.auditHistoryService.getAuditHistory(
-            collectionName, type, revisions, actor, fromDateTime, tillDateTime, pageRequest);
+            collectionName,
+            documentId,
+            type,
+            revisions,
+            actor,
+            fromDateTime,
+            tillDateTime,
+            fullSnapshot,
+            pageRequest,
+            total);
     return PaginatedResourceAssembler.assemble(feePage);
   }
+
+  @GetMapping("/{collectionName}/{documentId}")
+  @Operation(
+      operationId = "get-document-audit-history",
+      summary = "Gets a page of Audit History of a document, by datetime")
+  @ApiResponses(
+      value = {
+        @ApiResponse(
+            responseCode = "200",
+            description =
+                "Audit History page returned successfully. Returns an empty page if no records found"),
+        @ApiResponse(
+            responseCode = "500",
+            description = "Internal Server error",
+            content = @Content(examples = @ExampleObject(INTERNAL_SERVER_ERROR_EXAMPLE_RESPONSE)))
+      })
+  public PaginatedResource<AuditEvent> getDocumentAuditHistory(
+      @Parameter(description = "Source MongoDB Collection name. E.g. <b>products</b>")
+          @PathVariable
+          final String collectionName,
+      @Parameter(description = "Source document id. E.g. <b>6583d9a8f0c5b22a4c8f1a5e</b>")
+          @PathVariable
+          final String documentId,
+      @Parameter(
+              description =
+                  "Whether to rebuild full snapshots of delta encoded Audit records. Default: false")
+          @RequestParam(defaultValue = "false")
+          final boolean fullSnapshot,
+      @Parameter(
+              description =
+                  "Cursor of the next page, as returned in <b>nextCursor</b> of a page. "
+                      + "Omit to get the first page")
+          @RequestParam(name = CURSOR_PARAM, required = false)
+          final String cursor,
+      @Parameter(description = "Page size. Default: 16")
+          @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE)
+          final int size,
+      @Parameter(
+              description =
+                  "Order of the first page by datetime, next pages follow the order of the cursor. "
+                      + "Default: DESC, latest first")
+          @RequestParam(defaultValue = "DESC")
+          final Sort.Direction direction) {
+    return PaginatedResourceAssembler.assemble(
+        this.auditHistoryService.getDocumentHistory(
+            collectionName, documentId, fullSnapshot, cursor, size, direction));
+  }
+
+  @GetMapping("/export")
+  @Operation(
+      operationId = "export-audit-history",
+      summary = "Exports Audit History as NDJSON or CSV")
+  @ApiResponses(
+      value = {
+        @ApiResponse(
+            responseCode = "200",
+            description = "Audit History streamed oldest first. Returns no records if none found"),
+        @ApiResponse(
+            responseCode = "500",
+            description = "Internal Server error",
+            content = @Content(examples = @ExampleObject(INTERNAL_SERVER_ERROR_EXAMPLE_RESPONSE)))
+      })
+  public WebAsyncTask<Void> exportAuditHistory(
+      @Parameter(
+              description = "Source MongoDB Collection name. E.g. <b>products</b>",
+              required = true)
+          @RequestParam
+          final String collectionName,
+      @Parameter(description = "Source document id. E.g. <b>6583d9a8f0c5b22a4c8f1a5e</b>")
+          @RequestParam(required = false)
+          final String documentId,
+      @Parameter(description = "Audit Event type.") @RequestParam(required = false)
+          final AuditEvent.Type type,
+      @Parameter(description = "Audit Revisions.") @RequestParam(required = false)
+          final List<Long> revisions,
+      @Parameter(description = "Audit Username. E.g. <b>SYSTEM</b>") @RequestParam(required = false)
+          final String actor,
+      @Parameter(description = "From Datetime, Inclusive. E.g. <b>2023-12-20T13:57:13+05:30</b>")
+          @RequestParam(required = false)
+          final OffsetDateTime fromDateTime,
+      @Parameter(description = "Till Datetime, Inclusive. E.g. <b>2023-12-22T13:57:13+05:30</b>")
+          @RequestParam(required = false)
+          final OffsetDateTime tillDateTime,
+      @Parameter(
+              description =
+                  "Whether to rebuild full snapshots of delta encoded Audit records. Default: false")
+          @RequestParam(defaultValue = "false")
+          final boolean fullSnapshot,
+      @Parameter(description = "Export format, <b>NDJSON</b> or <b>CSV</b>. Default: NDJSON")
+          @RequestParam(defaultValue = "NDJSON")
+          final AuditExportFormat format,
+      final HttpServletResponse response) {
+    // Resolved before the response is committed, so unknown collections are reported as errors
+    final Stream<AuditEvent> auditEvents =
+        this.auditHistoryService.streamAuditHistory(
+            collectionName,
+            documentId,
+            type,
+            revisions,
+            actor,
+            fromDateTime,
+            tillDateTime,
+            fullSnapshot);
+    response.setContentType(format.getMediaType().toString());
+    response.setHeader(
+        HttpHeaders.CONTENT_DISPOSITION,
+        ContentDisposition.attachment()
+            .filename(collectionName + "-audit-history." + format.getExtension())
+            .build()
+            .toString());
+    // A failure after the response is committed closes the connection, so the client sees an
+    // incomplete chunked response rather than a silently truncated export
+    final WebAsyncTask<Void> export =
+        new WebAsyncTask<>(
+            EXPORT_TIMEOUT.toMillis(),
+            () -> {
+              try (auditEvents) {
+                format.write(auditEvents, response.getOutputStream(), this.objectMapper);
+              } catch (final RuntimeException e) {
+                log.error("Audit history export of collection: " + collectionName + " failed", e);
+                throw e;
+              }
+              return null;
+            });
+    export.onTimeout(
+        () -> {
+          log.warn(
+              "Audit history export of collection: {} exceeded timeout of {}, aborted",
+              collectionName,
+              EXPORT_TIMEOUT);
+          throw new AsyncRequestTimeoutException();
+        });
+    return export;
+  }
 }
@@ -0,0 +1,150 @@
+package com.ksoot.product.adapter.repository;
+
+import com.ksoot.mongodb.AuditEvent;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+/**
+ * Position of keyset pagination of Audit history, seeking on {@code (datetime, _id)}, on {@code
+ * revision} alone if revisions are unique within a Source collection, or else on {@code
+ * (revision, _id)}, in the order of the first page. Encoded as an opaque Base64Url token of the
+ * sort property, direction and the values of the last Audit record of a page. Revisions are
+ * unique, so seeking on them is consistent, but revisions reserved in blocks by different
+ * application instances do not follow time, so only {@code datetime} orders chronologically.
+ *
+ * @param property sort property, either {@code datetime} or {@code revision}
+ * @param direction sort direction
+ * @param value value of the sort property of the last Audit record, null before the first page
+ * @param id id of the last Audit record, as stored, null before the first page
+ */
+record AuditHistoryCursor(String property, Sort.Direction direction, Object value, Object id) {
+
+  private static final String DATETIME = "datetime";
+
+  private static final String REVISION = "revision";
+
+  private static final String ID = "_id";
+
+  private static final String SEPARATOR = ":";
+
+  // Before the first page, in the order of given sort if by datetime or revision, otherwise
+  // latest first
+  static AuditHistoryCursor first(final Sort sort) {
+    return sort.stream()
+        .findFirst()
+        .filter(
+            order -> DATETIME.equals(order.getProperty()) || REVISION.equals(order.getProperty()))
+        .map(order -> new AuditHistoryCursor(order.getProperty(), order.getDirection(), null, null))
+        .orElse(new AuditHistoryCursor(DATETIME, Sort.Direction.DESC, null, null));
+  }
+
+  // Before the first page of the timeline of a document, in given direction. Ordered by datetime
+  // rather than revision, as revisions allocated in blocks do not follow time
+  static AuditHistoryCursor firstOfDocument(final Sort.Direction direction) {
+    return new AuditHistoryCursor(DATETIME, direction, null, null);
+  }
+
+  static AuditHistoryCursor decode(final String token) {
+    final String[] parts =
+        new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8)
+            .split(SEPARATOR, 5);
+    if (parts.length != 5 || !List.of(DATETIME, REVISION).contains(parts[0])) {
+      throw new IllegalArgumentException("Malformed cursor: " + token);
+    }
+    return new AuditHistoryCursor(
+        parts[0],
+        Sort.Direction.valueOf(parts[1]),
+        DATETIME.equals(parts[0])
+            ? new Date(Long.parseLong(parts[2]))
+            : Long.valueOf(Long.parseLong(parts[2])),
+        "o".equals(parts[3]) ? new ObjectId(parts[4]) : parts[4]);
+  }
+
+  String encode() {
+    final String position =
+        String.join(
+            SEPARATOR,
+            this.property,
+            this.direction.name(),
+            String.valueOf(
+                this.value instanceof Date date
+                    ? date.getTime()
+                    : ((Number) this.value).longValue()),
+            this.id instanceof ObjectId ? "o" : "s",
+            this.id.toString());
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString(position.getBytes(StandardCharsets.UTF_8));
+  }
+
+  AuditHistoryCursor after(final AuditEvent auditEvent) {
+    return new AuditHistoryCursor(
+        this.property,
+        this.direction,
+        DATETIME.equals(this.property)
+            ? Date.from(auditEvent.getDatetime().toInstant())
+            : auditEvent.getRevision(),
+        ObjectId.isValid(auditEvent.getId())
+            ? new ObjectId(auditEvent.getId())
+            : auditEvent.getId());
+  }
+
+  // Audit record as stored
+  AuditHistoryCursor after(final Document auditRecord) {
+    return new AuditHistoryCursor(
+        this.property, this.direction, auditRecord.get(this.property), auditRecord.get(ID));
+  }
+
+  boolean isFirst() {
+    return this.id == null;
+  }
+
+  Sort sort() {
+    return this.sort(false);
+  }
+
+  // Revisions unique within a Source collection are seeked on alone, served by the unique index on
+  // (collectionName, revision)
+  Sort sort(final boolean uniqueRevisions) {
+    return uniqueRevisions && this.isRevision()
+        ? Sort.by(this.direction, REVISION)
+        : Sort.by(this.direction, this.property, ID);
+  }
+
+  Criteria criteria() {
+    return this.criteria(false);
+  }
+
+  // Audit records strictly after this position, in sort order
+  Criteria criteria(final boolean uniqueRevisions) {
+    if (uniqueRevisions && this.isRevision()) {
+      return this.direction.isAscending()
+          ? Criteria.where(REVISION).gt(this.value)
+          : Criteria.where(REVISION).lt(this.value);
+    }
+    return this.direction.isAscending()
+        ? new Criteria()
+            .orOperator(
+                Criteria.where(this.property).gt(this.value),
+                Criteria.where(this.property).is(this.value).and(ID).gt(this.id))
+        : new Criteria()
+            .orOperator(
+                Criteria.where(this.property).lt(this.value),
+                Criteria.where(this.property).is(this.value).and(ID).lt(this.id));
+  }
+
+  boolean isRevision() {
+    return REVISION.equals(this.property);
+  }
+
+  // Position as an Audit record as stored, to compare archived Audit records with
+  Document position() {
+    return new Document(this.property, this.value).append(ID, this.id);
+  }
+}
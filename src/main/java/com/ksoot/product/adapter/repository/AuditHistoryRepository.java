@@ -1,19 +1,36 @@
 package com.ksoot.product.adapter.repository;
 
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Streams;
+import com.ksoot.common.EstimatedPage;
+import com.ksoot.common.KeysetPage;
+import com.ksoot.common.TotalMode;
+import com.ksoot.mongodb.AuditArchive;
 import com.ksoot.mongodb.AuditEvent;
+import com.ksoot.mongodb.AuditEventReader;
 import com.ksoot.mongodb.AuditMetaData;
+import com.ksoot.mongodb.AuditSnapshotResolver;
+import com.ksoot.mongodb.Auditable;
 import com.ksoot.problem.core.Problems;
 import com.ksoot.product.domain.AppErrors;
 import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 import lombok.RequiredArgsConstructor;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
-import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoOperations;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
@@ -23,29 +40,421 @@ import org.springframework.stereotype.Repository;
 @Repository
 public class AuditHistoryRepository {
 
+  // Count limit of estimated totals, beyond which counting costs more than reading a page
+  private static final int ESTIMATED_COUNT_LIMIT = 10000;
+
+  // Audit records resolved at once while streaming, snapshots rebuilt are reused within a chunk
+  private static final int EXPORT_CHUNK_SIZE = 500;
+
   private final MongoOperations mongoOperations;
 
   private final AuditMetaData auditMetaData;
 
+  private final AuditSnapshotResolver auditSnapshotResolver;
+
+  private final AuditArchive auditArchive;
+
+  private final AuditEventReader auditEventReader;
+
   public Page<AuditEvent> getAuditHistory(
       final String collectionName,
+      final String documentId,
+      final AuditEvent.Type type,
+      final List<Long> revisions,
+      final String actor,
+      final OffsetDateTime fromDateTime,
+      final OffsetDateTime tillDateTime,
+      final boolean fullSnapshot,
+      final Pageable pageRequest,
+      final TotalMode totalMode) {
+    final String auditCollectionName = this.auditCollectionName(collectionName);
+    final OffsetDateTime fromDateTimeWithinRetention =
+        this.withinRetention(collectionName, fromDateTime);
+    final Query query =
+        this.query(
+            collectionName,
+            documentId,
+            type,
+            revisions,
+            actor,
+            fromDateTimeWithinRetention,
+            tillDateTime);
+    if (this.readsArchive(auditCollectionName, fromDateTimeWithinRetention)) {
+      return this.getAuditHistoryWithArchive(
+          auditCollectionName,
+          query,
+          this.archiveFilter(
+              collectionName,
+              documentId,
+              type,
+              revisions,
+              actor,
+              fromDateTimeWithinRetention,
+              tillDateTime),
+          fullSnapshot,
+          pageRequest,
+          totalMode);
+    }
+    // One more Audit record than the page size tells if there is a next page
+    query.with(pageRequest).limit(pageRequest.getPageSize() + 1);
+    final List<AuditEvent> auditRecords;
+    long totalRecords;
+    final boolean totalExact;
+    if (totalMode == TotalMode.NONE) {
+      auditRecords = this.auditEventReader.find(query, auditCollectionName);
+      totalRecords = 0;
+      totalExact = false;
+    } else {
+      // Totals are counted on the index, estimated ones up to ESTIMATED_COUNT_LIMIT
+      final int countLimit = totalMode == TotalMode.ESTIMATED ? ESTIMATED_COUNT_LIMIT : 0;
+      final AuditEventReader.Result result =
+          this.auditEventReader.findWithCount(query, auditCollectionName, countLimit);
+      auditRecords = result.auditEvents();
+      totalRecords = result.total();
+      totalExact = countLimit == 0 || totalRecords < countLimit;
+    }
+    final boolean hasNext = auditRecords.size() > pageRequest.getPageSize();
+    final List<AuditEvent> auditEvents =
+        auditRecords.stream().limit(pageRequest.getPageSize()).toList();
+    totalRecords =
+        Math.max(totalRecords, pageRequest.getOffset() + auditEvents.size() + (hasNext ? 1 : 0));
+    if (totalRecords == 0) {
+      return Page.empty();
+    }
+    return new EstimatedPage<>(
+        this.auditSnapshotResolver.resolve(auditCollectionName, auditEvents, fullSnapshot),
+        pageRequest,
+        totalRecords,
+        totalExact || !hasNext);
+  }
+
+  /**
+   * Gets a page of Audit history by keyset pagination, seeking past the last Audit record of the
+   * previous page instead of skipping the Audit records of all previous pages, so deep pages cost
+   * the same as the first one. Audit records are counted as per given total mode on the first page
+   * only, next pages are not counted, so paging through all of them stays linear.
+   *
+   * @param cursor cursor of the previous page, blank for the first page
+   * @param pageSize page size
+   * @param sort order of the first page, by {@code datetime} or {@code revision}, latest first by
+   *     default. Next pages follow the order of the cursor
+   * @return page of Audit records with the cursor of next page
+   */
+  public KeysetPage<AuditEvent> getAuditHistory(
+      final String collectionName,
+      final String documentId,
       final AuditEvent.Type type,
       final List<Long> revisions,
       final String actor,
       final OffsetDateTime fromDateTime,
       final OffsetDateTime tillDateTime,
-      final Pageable pageRequest) {
+      final boolean fullSnapshot,
+      final String cursor,
+      final int pageSize,
+      final Sort sort,
+      final TotalMode totalMode) {
+    final String auditCollectionName = this.auditCollectionName(collectionName);
+    final AuditHistoryCursor position = this.cursor(cursor, sort);
+    final OffsetDateTime fromDateTimeWithinRetention =
+        this.withinRetention(collectionName, fromDateTime);
+    final Query query =
+        this.query(
+            collectionName,
+            documentId,
+            type,
+            revisions,
+            actor,
+            fromDateTimeWithinRetention,
+            tillDateTime);
+    final boolean uniqueRevisions = this.uniqueRevisions(collectionName);
+    final TotalMode pageTotalMode = position.isFirst() ? totalMode : TotalMode.NONE;
+    long totalRecords =
+        switch (pageTotalMode) {
+          case EXACT -> this.mongoOperations.count(query, auditCollectionName);
+          case ESTIMATED -> this.mongoOperations.count(
+              Query.of(query).limit(ESTIMATED_COUNT_LIMIT), auditCollectionName);
+          case NONE -> 0;
+        };
+    boolean totalExact =
+        pageTotalMode == TotalMode.EXACT
+            || pageTotalMode == TotalMode.ESTIMATED && totalRecords < ESTIMATED_COUNT_LIMIT;
+    if (!position.isFirst()) {
+      query.addCriteria(position.criteria(uniqueRevisions));
+    }
+    // One more Audit record than the page size tells if there is a next page
+    query.with(position.sort(uniqueRevisions)).limit(pageSize + 1);
+
+    final List<AuditEvent> auditEvents;
+    final AuditHistoryCursor last;
+    if (this.readsArchive(auditCollectionName, fromDateTimeWithinRetention)) {
+      final AuditArchive.Result archivedRecords =
+          this.auditArchive.find(
+              auditCollectionName,
+              this.archiveFilter(
+                  collectionName,
+                  documentId,
+                  type,
+                  revisions,
+                  actor,
+                  fromDateTimeWithinRetention,
+                  tillDateTime),
+              position.sort(uniqueRevisions),
+              pageSize + 1,
+              position.isFirst() ? null : position.position(),
+              pageTotalMode);
+      totalRecords += archivedRecords.total();
+      totalExact = totalExact && archivedRecords.totalExact();
+      final List<Document> auditRecords =
+          new ArrayList<>(this.mongoOperations.find(query, Document.class, auditCollectionName));
+      auditRecords.addAll(archivedRecords.auditRecords());
+      auditRecords.sort(AuditArchive.comparator(position.sort(uniqueRevisions)));
+      last =
+          auditRecords.size() > pageSize ? position.after(auditRecords.get(pageSize - 1)) : null;
+      auditEvents =
+          auditRecords.stream()
+              .limit(pageSize)
+              .map(
+                  auditRecord ->
+                      this.mongoOperations.getConverter().read(AuditEvent.class, auditRecord))
+              .toList();
+    } else {
+      final List<AuditEvent> auditRecords = this.auditEventReader.find(query, auditCollectionName);
+      last =
+          auditRecords.size() > pageSize ? position.after(auditRecords.get(pageSize - 1)) : null;
+      auditEvents = auditRecords.stream().limit(pageSize).toList();
+    }
+    return new KeysetPage<>(
+        this.auditSnapshotResolver.resolve(auditCollectionName, auditEvents, fullSnapshot),
+        pageSize,
+        Math.max(totalRecords, auditEvents.size() + (last != null ? 1 : 0)),
+        last != null ? last.encode() : null,
+        totalExact,
+        position.isFirst());
+  }
+
+  /**
+   * Gets a page of the timeline of a document, its Audit records by keyset pagination on {@code
+   * (datetime, _id)}, served by the index on {@code (collectionName, source._id, datetime, _id)}
+   * irrespective of the number of Audit records in the Audit collection. Ordered by datetime rather
+   * than revision, as revisions allocated in blocks do not follow time. The archiver moves the
+   * oldest Audit records, so archived Audit records of a document precede the ones in the Audit
+   * collection. Hence latest first, the archive is read only if the Audit collection does not fill
+   * the page and the document's creation is not reached yet. Oldest first, the archive is read
+   * first and only until the position passes its newest Audit record. Records are not counted, the
+   * total is exact only if the first page is the last.
+   *
+   * @param cursor cursor of the previous page, blank for the first page
+   * @param pageSize page size
+   * @param direction order of the first page by datetime, next pages follow the order of the cursor
+   * @return page of Audit records with the cursor of next page
+   */
+  public KeysetPage<AuditEvent> getDocumentHistory(
+      final String collectionName,
+      final String documentId,
+      final boolean fullSnapshot,
+      final String cursor,
+      final int pageSize,
+      final Sort.Direction direction) {
+    final String auditCollectionName = this.auditCollectionName(collectionName);
+    final AuditHistoryCursor position =
+        StringUtils.isBlank(cursor)
+            ? AuditHistoryCursor.firstOfDocument(direction)
+            : this.cursor(cursor, Sort.unsorted());
+    if (position.isRevision()) {
+      throw Problems.newInstance(AppErrors.INVALID_AUDIT_CURSOR).detailArgs(cursor).throwAble();
+    }
+    final OffsetDateTime fromDateTime = this.withinRetention(collectionName, null);
+    final Query query =
+        this.query(collectionName, documentId, null, null, null, fromDateTime, null);
+    if (!position.isFirst()) {
+      query.addCriteria(position.criteria());
+    }
+    // One more Audit record than the page size tells if there is a next page
+    final int limit = pageSize + 1;
+    query.with(position.sort()).limit(limit);
+
+    final List<AuditEvent> auditRecords = new ArrayList<>();
+    if (position.direction().isAscending()) {
+      // Archived Audit records older than the position are already paged
+      OffsetDateTime archivedFrom = fromDateTime;
+      if (!position.isFirst()) {
+        final OffsetDateTime positionDatetime =
+            OffsetDateTime.ofInstant(((Date) position.value()).toInstant(), ZoneOffset.UTC);
+        if (Objects.isNull(archivedFrom) || positionDatetime.isAfter(archivedFrom)) {
+          archivedFrom = positionDatetime;
+        }
+      }
+      if (this.readsArchive(auditCollectionName, archivedFrom)) {
+        auditRecords.addAll(
+            this.archivedDocumentHistory(
+                auditCollectionName, collectionName, documentId, fromDateTime, position, limit));
+      }
+      if (auditRecords.size() < limit) {
+        auditRecords.addAll(this.auditEventReader.find(query, auditCollectionName));
+      }
+    } else {
+      auditRecords.addAll(this.auditEventReader.find(query, auditCollectionName));
+      if (auditRecords.size() < limit
+          && auditRecords.stream()
+              .noneMatch(auditRecord -> auditRecord.getType() == AuditEvent.Type.CREATED)
+          && this.readsArchive(auditCollectionName, fromDateTime)) {
+        auditRecords.addAll(
+            this.archivedDocumentHistory(
+                auditCollectionName, collectionName, documentId, fromDateTime, position, limit));
+      }
+    }
+    final Comparator<AuditEvent> chronological =
+        Comparator.comparing(AuditEvent::getDatetime).thenComparing(AuditEvent::getId);
+    auditRecords.sort(
+        position.direction().isAscending() ? chronological : chronological.reversed());
+    final AuditHistoryCursor last =
+        auditRecords.size() > pageSize ? position.after(auditRecords.get(pageSize - 1)) : null;
+    final List<AuditEvent> auditEvents = auditRecords.stream().limit(pageSize).toList();
+    return new KeysetPage<>(
+        this.auditSnapshotResolver.resolve(auditCollectionName, auditEvents, fullSnapshot),
+        pageSize,
+        auditEvents.size() + (last != null ? 1 : 0),
+        last != null ? last.encode() : null,
+        position.isFirst() && last == null,
+        position.isFirst());
+  }
+
+  // Blocks not containing the document are skipped by the per block id filters of the archive
+  // index, so only the blocks of the document are decoded
+  private List<AuditEvent> archivedDocumentHistory(
+      final String auditCollectionName,
+      final String collectionName,
+      final String documentId,
+      final OffsetDateTime fromDateTime,
+      final AuditHistoryCursor position,
+      final int limit) {
+    return this.auditArchive
+        .find(
+            auditCollectionName,
+            this.archiveFilter(collectionName, documentId, null, null, null, fromDateTime, null),
+            position.sort(),
+            limit,
+            position.isFirst() ? null : position.position(),
+            TotalMode.NONE)
+        .auditRecords()
+        .stream()
+        .map(auditRecord -> this.mongoOperations.getConverter().read(AuditEvent.class, auditRecord))
+        .toList();
+  }
+
+  /**
+   * Streams Audit history in chronological order, archived Audit records first, for exports of any
+   * size. Audit records are read through cursors and resolved in chunks, so memory stays bounded.
+   * The Audit collection is queried only once archived Audit records are exhausted, so its cursor
+   * does not idle while the archive is read. The stream must be closed to release the cursors.
+   *
+   * @return matching Audit records, oldest first
+   */
+  public Stream<AuditEvent> streamAuditHistory(
+      final String collectionName,
+      final String documentId,
+      final AuditEvent.Type type,
+      final List<Long> revisions,
+      final String actor,
+      final OffsetDateTime fromDateTime,
+      final OffsetDateTime tillDateTime,
+      final boolean fullSnapshot) {
+    final String auditCollectionName = this.auditCollectionName(collectionName);
+    final OffsetDateTime fromDateTimeWithinRetention =
+        this.withinRetention(collectionName, fromDateTime);
+    final List<Supplier<Stream<AuditEvent>>> sources = new ArrayList<>();
+    if (this.readsArchive(auditCollectionName, fromDateTimeWithinRetention)) {
+      final AuditArchive.Filter filter =
+          this.archiveFilter(
+              collectionName,
+              documentId,
+              type,
+              revisions,
+              actor,
+              fromDateTimeWithinRetention,
+              tillDateTime);
+      sources.add(
+          () ->
+              this.auditArchive
+                  .stream(auditCollectionName, filter)
+                  .map(
+                      auditRecord ->
+                          this.mongoOperations.getConverter().read(AuditEvent.class, auditRecord)));
+    }
+    final Query query =
+        this.query(
+                collectionName,
+                documentId,
+                type,
+                revisions,
+                actor,
+                fromDateTimeWithinRetention,
+                tillDateTime)
+            .with(Sort.by(Sort.Direction.ASC, "datetime", "_id"));
+    sources.add(() -> this.auditEventReader.stream(query, auditCollectionName));
+
+    final List<Stream<AuditEvent>> opened = new ArrayList<>();
+    final Iterator<AuditEvent> auditRecords =
+        Iterators.concat(
+            Iterators.transform(
+                sources.iterator(),
+                source -> {
+                  final Stream<AuditEvent> stream = source.get();
+                  opened.add(stream);
+                  return stream.iterator();
+                }));
+    return Streams.stream(Iterators.partition(auditRecords, EXPORT_CHUNK_SIZE))
+        .flatMap(
+            auditEvents ->
+                this.auditSnapshotResolver
+                    .resolve(auditCollectionName, auditEvents, fullSnapshot)
+                    .stream())
+        .onClose(() -> opened.forEach(Stream::close));
+  }
+
+  private String auditCollectionName(final String collectionName) {
     if (!this.auditMetaData.isPresent(collectionName)) {
       throw Problems.newInstance(AppErrors.AUDIT_COLLECTION_NOT_FOUND)
           .detailArgs(collectionName)
           .throwAble();
     }
+    return this.auditMetaData.getAuditCollection(collectionName).get();
+  }
 
-    String auditCollectionName = this.auditMetaData.getAuditCollection(collectionName).get();
+  // Revisions are unique within a Source collection unless scoped to documents
+  private boolean uniqueRevisions(final String collectionName) {
+    return this.auditMetaData
+        .getRevisionScope(collectionName)
+        .filter(revisionScope -> revisionScope != Auditable.RevisionScope.DOCUMENT)
+        .isPresent();
+  }
+
+  private AuditHistoryCursor cursor(final String cursor, final Sort sort) {
+    if (StringUtils.isBlank(cursor)) {
+      return AuditHistoryCursor.first(sort);
+    }
+    try {
+      return AuditHistoryCursor.decode(cursor);
+    } catch (final IllegalArgumentException e) {
+      throw Problems.newInstance(AppErrors.INVALID_AUDIT_CURSOR).detailArgs(cursor).throwAble();
+    }
+  }
+
+  private Query query(
+      final String collectionName,
+      final String documentId,
+      final AuditEvent.Type type,
+      final List<Long> revisions,
+      final String actor,
+      final OffsetDateTime fromDateTime,
+      final OffsetDateTime tillDateTime) {
     final Query query = new Query();
     if (StringUtils.isNotBlank(collectionName)) {
       query.addCriteria(Criteria.where("collectionName").is(collectionName));
     }
+    if (StringUtils.isNotBlank(documentId)) {
+      query.addCriteria(Criteria.where("source._id").in(this.documentIdValues(documentId)));
+    }
     if (Objects.nonNull(type)) {
       query.addCriteria(Criteria.where("type").is(type));
     }
@@ -65,17 +474,111 @@ public class AuditHistoryRepository {
     } else if (Objects.nonNull(tillDateTime)) {
       query.addCriteria(Criteria.where("datetime").lte(tillDateTime));
     }
-    final long totalRecords = this.mongoOperations.count(query, auditCollectionName);
+    return query;
+  }
+
+  private AuditArchive.Filter archiveFilter(
+      final String collectionName,
+      final String documentId,
+      final AuditEvent.Type type,
+      final List<Long> revisions,
+      final String actor,
+      final OffsetDateTime fromDateTime,
+      final OffsetDateTime tillDateTime) {
+    return new AuditArchive.Filter(
+        collectionName,
+        StringUtils.isNotBlank(documentId) ? this.documentIdValues(documentId) : null,
+        type,
+        revisions,
+        StringUtils.isNotBlank(actor) ? actor : null,
+        Objects.nonNull(fromDateTime) ? fromDateTime.toInstant() : null,
+        Objects.nonNull(tillDateTime) ? tillDateTime.toInstant() : null);
+  }
+
+  // Archived Audit records are read only if the requested date range reaches past the hot window
+  private boolean readsArchive(
+      final String auditCollectionName, final OffsetDateTime fromDateTime) {
+    return this.auditArchive
+        .getNewestDatetime(auditCollectionName)
+        .filter(
+            newest -> Objects.isNull(fromDateTime) || !fromDateTime.toInstant().isAfter(newest))
+        .isPresent();
+  }
+
+  // Audit records of the Audit collection and the archive are merged in requested order, if
+  // unsorted the Audit records of the Audit collection come first. Archived Audit records are
+  // counted from the archive index where possible, and counted exactly only if requested
+  private Page<AuditEvent> getAuditHistoryWithArchive(
+      final String auditCollectionName,
+      final Query query,
+      final AuditArchive.Filter filter,
+      final boolean fullSnapshot,
+      final Pageable pageRequest,
+      final TotalMode totalMode) {
+    // One more Audit record than the page size tells if there is a next page
+    final int limit = Math.toIntExact(pageRequest.getOffset() + pageRequest.getPageSize() + 1);
+    final long hotRecords =
+        switch (totalMode) {
+          case EXACT -> this.mongoOperations.count(query, auditCollectionName);
+          case ESTIMATED -> this.mongoOperations.count(
+              Query.of(query).limit(ESTIMATED_COUNT_LIMIT), auditCollectionName);
+          case NONE -> 0;
+        };
+    final AuditArchive.Result archivedRecords =
+        this.auditArchive.find(
+            auditCollectionName, filter, pageRequest.getSort(), limit, totalMode);
+    final List<Document> auditRecords =
+        new ArrayList<>(
+            this.mongoOperations.find(
+                query.with(pageRequest.getSort()).limit(limit),
+                Document.class,
+                auditCollectionName));
+    auditRecords.addAll(archivedRecords.auditRecords());
+    if (pageRequest.getSort().isSorted()) {
+      auditRecords.sort(AuditArchive.comparator(pageRequest.getSort()));
+    }
+    final boolean hasNext = auditRecords.size() > limit - 1;
+    final List<AuditEvent> auditEvents =
+        auditRecords.stream()
+            .skip(pageRequest.getOffset())
+            .limit(pageRequest.getPageSize())
+            .map(
+                auditRecord ->
+                    this.mongoOperations.getConverter().read(AuditEvent.class, auditRecord))
+            .toList();
+    final long totalRecords =
+        Math.max(
+            hotRecords + archivedRecords.total(),
+            pageRequest.getOffset() + auditEvents.size() + (hasNext ? 1 : 0));
     if (totalRecords == 0) {
       return Page.empty();
-    } else {
-      final Pageable pageable =
-          totalRecords <= pageRequest.getPageSize()
-              ? PageRequest.of(0, pageRequest.getPageSize(), pageRequest.getSort())
-              : pageRequest;
-      final List<AuditEvent> feeMovementRecords =
-          this.mongoOperations.find(query.with(pageable), AuditEvent.class, auditCollectionName);
-      return new PageImpl<>(feeMovementRecords, pageable, totalRecords);
     }
+    final boolean totalExact =
+        (totalMode == TotalMode.EXACT
+                || totalMode == TotalMode.ESTIMATED && hotRecords < ESTIMATED_COUNT_LIMIT)
+            && archivedRecords.totalExact();
+    return new EstimatedPage<>(
+        this.auditSnapshotResolver.resolve(auditCollectionName, auditEvents, fullSnapshot),
+        pageRequest,
+        totalRecords,
+        totalExact || !hasNext);
+  }
+
+  // Expired Audit records of time-series collections are removed lazily by MongoDB, bounding the
+  // datetime hides them and lets MongoDB skip expired buckets
+  private OffsetDateTime withinRetention(
+      final String collectionName, final OffsetDateTime fromDateTime) {
+    return this.auditMetaData
+        .getRetention(collectionName)
+        .map(retention -> OffsetDateTime.now().minus(retention))
+        .filter(oldest -> Objects.isNull(fromDateTime) || oldest.isAfter(fromDateTime))
+        .orElse(fromDateTime);
+  }
+
+  // Source document ids are stored as ObjectId if valid, otherwise as String
+  private List<Object> documentIdValues(final String documentId) {
+    return ObjectId.isValid(documentId)
+        ? List.of(new ObjectId(documentId), documentId)
+        : List.of(documentId);
   }
 }
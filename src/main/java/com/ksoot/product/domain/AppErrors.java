@@ -9,7 +9,9 @@ public enum AppErrors implements ErrorType {
   AUDIT_COLLECTION_NOT_FOUND(
       "audit.collection.not.found",
       "Audit collection not found for Source collection: {0}",
-      HttpStatus.BAD_REQUEST);
+      HttpStatus.BAD_REQUEST),
+  INVALID_AUDIT_CURSOR(
+      "invalid.audit.cursor", "Invalid Audit history cursor: {0}", HttpStatus.BAD_REQUEST);
 
   private final String errorKey;
 
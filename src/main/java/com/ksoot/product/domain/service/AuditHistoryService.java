@@ -1,12 +1,16 @@
 package com.ksoot.product.domain.service;
 
+import com.ksoot.common.KeysetPage;
+import com.ksoot.common.TotalMode;
 import com.ksoot.mongodb.AuditEvent;
 import com.ksoot.product.adapter.repository.AuditHistoryRepository;
 import java.time.OffsetDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 
 @Service
@@ -17,13 +21,84 @@ public class AuditHistoryService {
 
   public Page<AuditEvent> getAuditHistory(
       final String collectionName,
+      final String documentId,
       final AuditEvent.Type type,
       final List<Long> revisions,
       final String actor,
       final OffsetDateTime fromDateTime,
       final OffsetDateTime tillDateTime,
-      final Pageable pageRequest) {
+      final boolean fullSnapshot,
+      final Pageable pageRequest,
+      final TotalMode totalMode) {
     return this.auditHistoryRepository.getAuditHistory(
-        collectionName, type, revisions, actor, fromDateTime, tillDateTime, pageRequest);
+        collectionName,
+        documentId,
+        type,
+        revisions,
+        actor,
+        fromDateTime,
+        tillDateTime,
+        fullSnapshot,
+        pageRequest,
+        totalMode);
+  }
+
+  public KeysetPage<AuditEvent> getAuditHistory(
+      final String collectionName,
+      final String documentId,
+      final AuditEvent.Type type,
+      final List<Long> revisions,
+      final String actor,
+      final OffsetDateTime fromDateTime,
+      final OffsetDateTime tillDateTime,
+      final boolean fullSnapshot,
+      final String cursor,
+      final int pageSize,
+      final Sort sort,
+      final TotalMode totalMode) {
+    return this.auditHistoryRepository.getAuditHistory(
+        collectionName,
+        documentId,
+        type,
+        revisions,
+        actor,
+        fromDateTime,
+        tillDateTime,
+        fullSnapshot,
+        cursor,
+        pageSize,
+        sort,
+        totalMode);
+  }
+
+  public KeysetPage<AuditEvent> getDocumentHistory(
+      final String collectionName,
+      final String documentId,
+      final boolean fullSnapshot,
+      final String cursor,
+      final int pageSize,
+      final Sort.Direction direction) {
+    return this.auditHistoryRepository.getDocumentHistory(
+        collectionName, documentId, fullSnapshot, cursor, pageSize, direction);
+  }
+
+  public Stream<AuditEvent> streamAuditHistory(
+      final String collectionName,
+      final String documentId,
+      final AuditEvent.Type type,
+      final List<Long> revisions,
+      final String actor,
+      final OffsetDateTime fromDateTime,
+      final OffsetDateTime tillDateTime,
+      final boolean fullSnapshot) {
+    return this.auditHistoryRepository.streamAuditHistory(
+        collectionName,
+        documentId,
+        type,
+        revisions,
+        actor,
+        fromDateTime,
+        tillDateTime,
+        fullSnapshot);
   }
 }
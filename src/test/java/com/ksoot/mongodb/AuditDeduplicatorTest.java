@@ -0,0 +1,212 @@
+package com.ksoot.mongodb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.Map;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+
+class AuditDeduplicatorTest {
+
+  private static final String AUDIT_COLLECTION = "products_aud";
+
+  private MongoOperations mongoOperations;
+
+  private SimpleMeterRegistry meterRegistry;
+
+  private AuditMetaData auditMetaData;
+
+  @BeforeEach
+  void setUp() {
+    this.mongoOperations = mock(MongoOperations.class);
+    this.meterRegistry = new SimpleMeterRegistry();
+    this.auditMetaData = new AuditMetaData();
+    this.auditMetaData.register(Map.of("products", metadata("version"), "carts", metadata(null)));
+  }
+
+  @Test
+  void auditsAllUpdatesIfDisabled() {
+    final AuditDeduplicator auditDeduplicator =
+        this.deduplicator(MongoAuditProperties.DuplicateHandling.AUDIT);
+    final List<AuditEvent> auditEvents =
+        List.of(
+            event(AuditEvent.Type.UPDATED, "products", product(1, "Pen", 1)),
+            event(AuditEvent.Type.UPDATED, "products", product(1, "Pen", 2)));
+
+    assertThat(auditDeduplicator.deduplicate(AUDIT_COLLECTION, auditEvents))
+        .isSameAs(auditEvents);
+    verifyNoInteractions(this.mongoOperations);
+  }
+
+  @Test
+  void skipsUpdatesNotChangingPrecedingAuditRecordOfSameBatch() {
+    final AuditDeduplicator auditDeduplicator =
+        this.deduplicator(MongoAuditProperties.DuplicateHandling.SKIP);
+
+    final List<AuditEvent> deduplicated =
+        auditDeduplicator.deduplicate(
+            AUDIT_COLLECTION,
+            List.of(
+                event(AuditEvent.Type.CREATED, "products", product(1, "Pen", 0)),
+                event(AuditEvent.Type.UPDATED, "products", product(1, "Pen", 1)),
+                event(AuditEvent.Type.UPDATED, "products", product(1, "Ink pen", 2)),
+                event(AuditEvent.Type.UPDATED, "products", product(1, "Ink pen", 3))));
+
+    assertThat(
+            deduplicated.stream()
+                .map(auditEvent -> auditEvent.getSource().getInteger("version"))
+                .toList())
+        .containsExactly(0, 2);
+    assertThat(this.duplicates("products")).isEqualTo(2.0);
+    verify(this.mongoOperations, never())
+        .findOne(any(Query.class), eq(Document.class), eq(AUDIT_COLLECTION));
+  }
+
+  @Test
+  void marksUpdatesOfDocumentsWithoutVersionComparedWithLatestAuditRecord() {
+    final AuditDeduplicator auditDeduplicator =
+        this.deduplicator(MongoAuditProperties.DuplicateHandling.MARK);
+    final String hash =
+        auditDeduplicator
+            .deduplicate(
+                AUDIT_COLLECTION,
+                List.of(event(AuditEvent.Type.UPDATED, "carts", cart(1, "Pen"))))
+            .get(0)
+            .getContentHash();
+    when(this.mongoOperations.findOne(any(Query.class), eq(Document.class), eq(AUDIT_COLLECTION)))
+        .thenReturn(new Document("contentHash", hash));
+
+    final List<AuditEvent> deduplicated =
+        auditDeduplicator.deduplicate(
+            AUDIT_COLLECTION,
+            List.of(
+                event(AuditEvent.Type.UPDATED, "carts", cart(1, "Pen")),
+                event(AuditEvent.Type.UPDATED, "carts", cart(1, "Ink pen")),
+                event(AuditEvent.Type.UPDATED, "carts", cart(1, "Ink pen"))));
+
+    assertThat(deduplicated.stream().map(AuditEvent::getDuplicate).toList())
+        .containsExactly(true, null, true);
+    assertThat(deduplicated.get(0).getContentHash()).isEqualTo(hash);
+    // Latest Audit record is read once per document and batch
+    verify(this.mongoOperations, times(2))
+        .findOne(any(Query.class), eq(Document.class), eq(AUDIT_COLLECTION));
+  }
+
+  @Test
+  void comparesUpdatesAfterDeletionInSameBatchWithNothing() {
+    final AuditDeduplicator auditDeduplicator =
+        this.deduplicator(MongoAuditProperties.DuplicateHandling.MARK);
+
+    final List<AuditEvent> deduplicated =
+        auditDeduplicator.deduplicate(
+            AUDIT_COLLECTION,
+            List.of(
+                event(AuditEvent.Type.UPDATED, "carts", cart(1, "Pen")),
+                event(AuditEvent.Type.DELETED, "carts", cart(1, "Pen")),
+                event(AuditEvent.Type.UPDATED, "carts", cart(1, "Pen"))));
+
+    assertThat(deduplicated.stream().map(AuditEvent::getDuplicate).toList())
+        .containsExactly(null, null, null);
+  }
+
+  @Test
+  void usesCachedHashOnlyForDirectlyFollowingVersion() {
+    final AuditDeduplicator auditDeduplicator =
+        this.deduplicator(MongoAuditProperties.DuplicateHandling.MARK);
+    auditDeduplicator.deduplicate(
+        AUDIT_COLLECTION,
+        List.of(event(AuditEvent.Type.UPDATED, "products", product(1, "Pen", 1))));
+
+    final AuditEvent following =
+        auditDeduplicator
+            .deduplicate(
+                AUDIT_COLLECTION,
+                List.of(event(AuditEvent.Type.UPDATED, "products", product(1, "Pen", 2))))
+            .get(0);
+    final AuditEvent skipped =
+        auditDeduplicator
+            .deduplicate(
+                AUDIT_COLLECTION,
+                List.of(event(AuditEvent.Type.UPDATED, "products", product(1, "Pen", 5))))
+            .get(0);
+
+    assertThat(following.getDuplicate()).isEqualTo(true);
+    // Versions 3 and 4 may have been audited by other instances, latest Audit record is read
+    assertThat(skipped.getDuplicate()).isNull();
+    verify(this.mongoOperations, times(2))
+        .findOne(any(Query.class), eq(Document.class), eq(AUDIT_COLLECTION));
+  }
+
+  @Test
+  void readsLatestAuditRecordAfterInvalidation() {
+    final AuditDeduplicator auditDeduplicator =
+        this.deduplicator(MongoAuditProperties.DuplicateHandling.MARK);
+    final List<AuditEvent> notWritten =
+        auditDeduplicator.deduplicate(
+            AUDIT_COLLECTION,
+            List.of(event(AuditEvent.Type.UPDATED, "products", product(1, "Pen", 1))));
+    auditDeduplicator.invalidate(notWritten);
+
+    final AuditEvent next =
+        auditDeduplicator
+            .deduplicate(
+                AUDIT_COLLECTION,
+                List.of(event(AuditEvent.Type.UPDATED, "products", product(1, "Pen", 2))))
+            .get(0);
+
+    assertThat(next.getDuplicate()).isNull();
+  }
+
+  private AuditDeduplicator deduplicator(final MongoAuditProperties.DuplicateHandling mode) {
+    final MongoAuditProperties mongoAuditProperties = new MongoAuditProperties();
+    mongoAuditProperties.getAuditing().getDeduplication().setMode(mode);
+    return new AuditDeduplicator(
+        mongoAuditProperties, this.mongoOperations, this.auditMetaData, this.meterRegistry);
+  }
+
+  private double duplicates(final String collectionName) {
+    return this.meterRegistry
+        .get("mongodb.audit.duplicates")
+        .tag("collection", collectionName)
+        .counter()
+        .count();
+  }
+
+  private static AuditMetaData.Metadata metadata(final String versionProperty) {
+    return new AuditMetaData.Metadata(
+        AUDIT_COLLECTION,
+        versionProperty,
+        Auditable.RevisionScope.COLLECTION,
+        Auditable.Storage.FULL,
+        Auditable.Compression.NONE,
+        AuditProjection.IDENTITY,
+        false,
+        null);
+  }
+
+  private static AuditEvent event(
+      final AuditEvent.Type type, final String collectionName, final Document source) {
+    return AuditEvent.of(type, System.currentTimeMillis(), null, collectionName, source, "SYSTEM");
+  }
+
+  private static Document product(final int id, final String name, final int version) {
+    return new Document("_id", id).append("name", name).append("version", version);
+  }
+
+  private static Document cart(final int id, final String item) {
+    return new Document("_id", id).append("item", item);
+  }
+}
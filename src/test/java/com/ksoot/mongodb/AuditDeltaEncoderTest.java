@@ -0,0 +1,114 @@
+package com.ksoot.mongodb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.Map;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AuditDeltaEncoderTest {
+
+  private static final String COLLECTION = "products";
+
+  private AuditDeltaEncoder auditDeltaEncoder;
+
+  @BeforeEach
+  void setUp() {
+    final MongoAuditProperties mongoAuditProperties = new MongoAuditProperties();
+    mongoAuditProperties.getAuditing().getDelta().setKeyframeInterval(3);
+    final AuditMetaData auditMetaData = new AuditMetaData();
+    auditMetaData.register(Map.of(COLLECTION, metadata(Auditable.Storage.DELTA)));
+    this.auditDeltaEncoder = new AuditDeltaEncoder(mongoAuditProperties, auditMetaData);
+  }
+
+  @Test
+  void encodesDeltasBetweenKeyframes() {
+    final List<AuditEvent> encoded =
+        this.auditDeltaEncoder.encode(
+            List.of(
+                event(AuditEvent.Type.CREATED, 1, product(1, "Pen", 10)),
+                event(AuditEvent.Type.UPDATED, 2, product(1, "Pen", 12)),
+                event(AuditEvent.Type.UPDATED, 3, product(1, "Ink pen", 12)),
+                event(AuditEvent.Type.UPDATED, 4, product(1, "Ink pen", 15))));
+
+    assertThat(encoded.get(0).hasDelta()).isFalse();
+    assertThat(encoded.get(1).hasDelta()).isTrue();
+    assertThat(encoded.get(1).getBaseRevision()).isEqualTo(1L);
+    assertThat(encoded.get(1).getSource()).isEqualTo(new Document("_id", 1));
+    assertThat(encoded.get(1).getDelta())
+        .containsExactly(
+            new Document(DocumentDiff.OP, DocumentDiff.OP_SET)
+                .append(DocumentDiff.PATH, List.of("price"))
+                .append(DocumentDiff.VALUE, 12));
+    assertThat(encoded.get(2).getBaseRevision()).isEqualTo(2L);
+    // Keyframe interval reached
+    assertThat(encoded.get(3).hasDelta()).isFalse();
+    assertThat(encoded.get(3).getSource()).isEqualTo(product(1, "Ink pen", 15));
+  }
+
+  @Test
+  void writesKeyframeAfterDeletionAndInvalidation() {
+    this.auditDeltaEncoder.encode(
+        List.of(
+            event(AuditEvent.Type.CREATED, 1, product(1, "Pen", 10)),
+            event(AuditEvent.Type.DELETED, 2, product(1, "Pen", 10)),
+            event(AuditEvent.Type.CREATED, 3, product(2, "Pencil", 5))));
+    final List<AuditEvent> deleted =
+        this.auditDeltaEncoder.encode(
+            List.of(event(AuditEvent.Type.UPDATED, 4, product(1, "Pen", 12))));
+    this.auditDeltaEncoder.invalidate(
+        List.of(event(AuditEvent.Type.UPDATED, 5, product(2, "Pencil", 6))));
+    final List<AuditEvent> invalidated =
+        this.auditDeltaEncoder.encode(
+            List.of(event(AuditEvent.Type.UPDATED, 6, product(2, "Pencil", 7))));
+
+    assertThat(deleted.get(0).hasDelta()).isFalse();
+    assertThat(invalidated.get(0).hasDelta()).isFalse();
+  }
+
+  @Test
+  void keepsFullSnapshotsOfCollectionsNotDeltaEncoded() {
+    final AuditMetaData auditMetaData = new AuditMetaData();
+    auditMetaData.register(Map.of(COLLECTION, metadata(Auditable.Storage.FULL)));
+    final AuditDeltaEncoder fullEncoder =
+        new AuditDeltaEncoder(new MongoAuditProperties(), auditMetaData);
+
+    final List<AuditEvent> encoded =
+        fullEncoder.encode(
+            List.of(
+                event(AuditEvent.Type.CREATED, 1, product(1, "Pen", 10)),
+                event(AuditEvent.Type.UPDATED, 2, product(1, "Pen", 12))));
+
+    assertThat(encoded.get(1).hasDelta()).isFalse();
+    assertThat(encoded.get(1).getSource()).isEqualTo(product(1, "Pen", 12));
+  }
+
+  static AuditMetaData.Metadata metadata(final Auditable.Storage storage) {
+    return new AuditMetaData.Metadata(
+        COLLECTION + "_aud",
+        "version",
+        Auditable.RevisionScope.COLLECTION,
+        storage,
+        Auditable.Compression.NONE,
+        AuditProjection.IDENTITY,
+        false,
+        null);
+  }
+
+  static AuditEvent event(final AuditEvent.Type type, final long revision, final Document source) {
+    return AuditEvent.of(
+        String.valueOf(revision),
+        type,
+        System.currentTimeMillis(),
+        revision,
+        COLLECTION,
+        source,
+        "SYSTEM");
+  }
+
+  static Document product(final int id, final String name, final int price) {
+    return new Document("_id", id).append("name", name).append("price", price);
+  }
+}
@@ -0,0 +1,195 @@
+package com.ksoot.mongodb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.mongodb.MongoClientSettings;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonInt32;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+class AuditEventCodecTest {
+
+  private final AuditEventCodec codec =
+      new AuditEventCodec(MongoClientSettings.getDefaultCodecRegistry());
+
+  @Test
+  void roundTripsAllFields() {
+    final String id = new ObjectId().toHexString();
+    final AuditEvent auditEvent =
+        AuditEvent.of(
+                id,
+                AuditEvent.Type.UPDATED,
+                System.currentTimeMillis(),
+                7L,
+                "products",
+                new Document("_id", 1).append("name", "Pen"),
+                "john")
+            .asDelta(
+                5L,
+                List.of(
+                    new Document(DocumentDiff.OP, DocumentDiff.OP_SET)
+                        .append(DocumentDiff.PATH, List.of("name"))
+                        .append(DocumentDiff.VALUE, "Pen")))
+            .withContentHash("hash")
+            .withDuplicate(true);
+
+    final BsonDocument encoded = this.encode(auditEvent);
+    final AuditEvent decoded = this.decode(encoded);
+
+    assertThat(encoded.get("_id")).isEqualTo(new BsonObjectId(new ObjectId(id)));
+    assertThat(decoded.getId()).isEqualTo(id);
+    assertThat(decoded.getDatetime().toInstant())
+        .isEqualTo(auditEvent.getDatetime().toInstant());
+    assertThat(decoded.getActor()).isEqualTo("john");
+    assertThat(decoded.getRevision()).isEqualTo(7L);
+    assertThat(decoded.getType()).isEqualTo(AuditEvent.Type.UPDATED);
+    assertThat(decoded.getCollectionName()).isEqualTo("products");
+    assertThat(new Document(decoded.getSource())).isEqualTo(new Document("_id", 1));
+    assertThat(decoded.getBaseRevision()).isEqualTo(5L);
+    assertThat(decoded.getDelta()).isEqualTo(auditEvent.getDelta());
+    assertThat(decoded.getContentHash()).isEqualTo("hash");
+    assertThat(decoded.getDuplicate()).isEqualTo(true);
+  }
+
+  @Test
+  void roundTripsCompressedSnapshotsAndStringIds() {
+    final AuditEvent auditEvent =
+        AuditEvent.of(
+                "products-7",
+                AuditEvent.Type.CREATED,
+                System.currentTimeMillis(),
+                7L,
+                "products",
+                new Document("_id", 1).append("name", "Pen"),
+                "john")
+            .asCompressed(Auditable.Compression.DEFLATE, new byte[] {1, 2, 3});
+
+    final BsonDocument encoded = this.encode(auditEvent);
+    final AuditEvent decoded = this.decode(encoded);
+
+    assertThat(encoded.get("_id")).isEqualTo(new BsonString("products-7"));
+    assertThat(decoded.getId()).isEqualTo("products-7");
+    assertThat(decoded.getCompression()).isEqualTo(Auditable.Compression.DEFLATE);
+    assertThat(decoded.getCompressedSource()).isEqualTo(new byte[] {1, 2, 3});
+    assertThat(decoded.hasDelta()).isFalse();
+  }
+
+  @Test
+  void generatesIdOfNewAuditRecords() {
+    final BsonDocument encoded =
+        this.encode(
+            AuditEvent.of(
+                AuditEvent.Type.CREATED,
+                System.currentTimeMillis(),
+                1L,
+                "products",
+                new Document("_id", 1),
+                "john"));
+
+    assertThat(encoded.get("_id").getBsonType()).isEqualTo(BsonType.OBJECT_ID);
+  }
+
+  @Test
+  void readsAuditRecordsWrittenByMappingConverter() {
+    final BsonDocument mapped =
+        new BsonDocument("_id", new BsonObjectId())
+            .append("_class", new BsonString("com.ksoot.mongodb.AuditEvent"))
+            .append("revision", new BsonInt32(3))
+            .append("type", new BsonString("DELETED"))
+            .append("collectionName", new BsonString("products"))
+            .append("source", new BsonDocument("_id", new BsonInt32(1)));
+
+    final AuditEvent decoded = this.decode(mapped);
+
+    assertThat(decoded.getRevision()).isEqualTo(3L);
+    assertThat(decoded.getType()).isEqualTo(AuditEvent.Type.DELETED);
+    assertThat(decoded.getDatetime()).isNull();
+  }
+
+  @Test
+  void passesSnapshotsNotAccessedThroughAsRawBson() {
+    final Document source =
+        new Document("_id", 1).append("price", new Document("amount", 10).append("tax", 1.8));
+    final AuditEvent decoded =
+        this.decode(
+            this.encode(
+                AuditEvent.of(
+                    AuditEvent.Type.CREATED,
+                    System.currentTimeMillis(),
+                    1L,
+                    "products",
+                    source,
+                    "john")));
+    final LazyDocument snapshot = (LazyDocument) decoded.getSource();
+    final RawBsonDocument raw = snapshot.raw();
+
+    final BsonDocument encodedAgain = this.encode(decoded);
+
+    assertThat(raw).isNotNull();
+    assertThat(snapshot.raw()).isSameAs(raw);
+    assertThat(encodedAgain.getDocument("source")).isEqualTo(raw);
+  }
+
+  @Test
+  void decodesLazyDocumentOnFirstAccess() {
+    final Document source = new Document("_id", 1).append("name", "Pen");
+    final LazyDocument lazyDocument =
+        new LazyDocument(new RawBsonDocument(source, new DocumentCodec()));
+
+    assertThat(lazyDocument.getString("name")).isEqualTo("Pen");
+    assertThat(lazyDocument.raw()).isNull();
+    lazyDocument.put("name", "Ink pen");
+    assertThat(lazyDocument.keySet()).containsExactly("_id", "name");
+    assertThat(lazyDocument.get("name")).isEqualTo("Ink pen");
+    // Modified snapshot is encoded from the decoded fields
+    assertThat(this.encode(lazyDocument).getString("name")).isEqualTo(new BsonString("Ink pen"));
+  }
+
+  @Test
+  void serializesLazyDocumentAsDecodedDocument() throws Exception {
+    final Document source = new Document("_id", 1).append("name", "Pen");
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+      output.writeObject(new LazyDocument(new RawBsonDocument(source, new DocumentCodec())));
+    }
+
+    try (ObjectInputStream input =
+        new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      assertThat(input.readObject()).isEqualTo(source);
+    }
+  }
+
+  private BsonDocument encode(final AuditEvent auditEvent) {
+    final BsonDocument document = new BsonDocument();
+    this.codec.encode(
+        new BsonDocumentWriter(document), auditEvent, EncoderContext.builder().build());
+    return document;
+  }
+
+  private BsonDocument encode(final Document snapshot) {
+    final AuditEvent auditEvent =
+        AuditEvent.of(
+            AuditEvent.Type.UPDATED, System.currentTimeMillis(), 1L, "products", snapshot, "john");
+    return this.encode(auditEvent).getDocument("source");
+  }
+
+  private AuditEvent decode(final BsonDocument document) {
+    return this.codec.decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+  }
+}
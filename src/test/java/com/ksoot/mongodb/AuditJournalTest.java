@@ -0,0 +1,160 @@
+package com.ksoot.mongodb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AuditJournalTest {
+
+  private static final int SEGMENT_SIZE = 64;
+
+  @TempDir Path directory;
+
+  @Test
+  void readsAppendedRecordsInOrderUntilAcknowledged() {
+    try (AuditJournal journal = new AuditJournal(this.directory, SEGMENT_SIZE)) {
+      assertThat(journal.isEmpty()).isTrue();
+      journal.append(records("one", "two", "three"));
+
+      final AuditJournal.Batch first = journal.read(2);
+      assertThat(strings(first)).containsExactly("one", "two");
+      // Not acknowledged, read again
+      assertThat(strings(journal.read(2))).containsExactly("one", "two");
+      journal.acknowledge(first);
+      final AuditJournal.Batch second = journal.read(2);
+      assertThat(strings(second)).containsExactly("three");
+      journal.acknowledge(second);
+
+      assertThat(journal.isEmpty()).isTrue();
+      assertThat(journal.read(2).records()).isEmpty();
+    }
+  }
+
+  @Test
+  void readsAcrossSegments() {
+    try (AuditJournal journal = new AuditJournal(this.directory, SEGMENT_SIZE)) {
+      // 8 byte header and 20 byte record, two records per segment
+      journal.append(records(20, "a", "b", "c", "d", "e"));
+
+      final AuditJournal.Batch first = journal.read(10);
+      journal.acknowledge(first);
+      final AuditJournal.Batch second = journal.read(10);
+      journal.acknowledge(second);
+      final AuditJournal.Batch third = journal.read(10);
+      journal.acknowledge(third);
+
+      assertThat(first.records()).hasSize(2);
+      assertThat(second.records()).hasSize(2);
+      assertThat(third.records()).hasSize(1);
+      assertThat(journal.isEmpty()).isTrue();
+    }
+  }
+
+  @Test
+  void reusesSegmentOnceAllRecordsAreAcknowledged() throws IOException {
+    try (AuditJournal journal = new AuditJournal(this.directory, SEGMENT_SIZE)) {
+      journal.append(records("one", "two"));
+      journal.acknowledge(journal.read(10));
+      journal.append(records("six"));
+
+      assertThat(segments()).hasSize(1);
+      assertThat(strings(journal.read(10))).containsExactly("six");
+    }
+
+    try (AuditJournal journal = new AuditJournal(this.directory, SEGMENT_SIZE)) {
+      // Acknowledged record of same size following the reused one is not read again
+      assertThat(strings(journal.read(10))).containsExactly("six");
+    }
+  }
+
+  @Test
+  void rejectsRecordsLargerThanSegment() {
+    try (AuditJournal journal = new AuditJournal(this.directory, SEGMENT_SIZE)) {
+      assertThatThrownBy(() -> journal.append(List.of(new byte[SEGMENT_SIZE])))
+          .isInstanceOf(IllegalArgumentException.class);
+    }
+  }
+
+  @Test
+  void readsUnacknowledgedRecordsAgainAfterReopen() {
+    try (AuditJournal journal = new AuditJournal(this.directory, SEGMENT_SIZE)) {
+      journal.append(records("one", "two", "three"));
+      journal.acknowledge(journal.read(1));
+    }
+
+    try (AuditJournal journal = new AuditJournal(this.directory, SEGMENT_SIZE)) {
+      assertThat(journal.isEmpty()).isFalse();
+      // Acknowledgements within a segment are not persisted, so records are read at least once
+      assertThat(strings(journal.read(10))).containsExactly("one", "two", "three");
+      journal.append(records("four"));
+      journal.acknowledge(journal.read(10));
+      assertThat(strings(journal.read(10))).containsExactly("four");
+    }
+  }
+
+  @Test
+  void doesNotReadAcknowledgedRecordsAfterReopen() {
+    try (AuditJournal journal = new AuditJournal(this.directory, SEGMENT_SIZE)) {
+      journal.append(records("one", "two"));
+      journal.acknowledge(journal.read(10));
+    }
+
+    try (AuditJournal journal = new AuditJournal(this.directory, SEGMENT_SIZE)) {
+      assertThat(journal.read(10).records()).isEmpty();
+      assertThat(journal.isEmpty()).isTrue();
+    }
+  }
+
+  @Test
+  void stopsAtTornRecordOnReopen() throws IOException {
+    try (AuditJournal journal = new AuditJournal(this.directory, SEGMENT_SIZE)) {
+      journal.append(records("one", "two"));
+    }
+    // Corrupt the payload of the second record, as if torn by a crash
+    try (FileChannel channel = FileChannel.open(segments().get(0), StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {'x'}), 8 + 3 + 8);
+    }
+
+    try (AuditJournal journal = new AuditJournal(this.directory, SEGMENT_SIZE)) {
+      final AuditJournal.Batch batch = journal.read(10);
+      assertThat(strings(batch)).containsExactly("one");
+      journal.acknowledge(batch);
+      // Torn segment is dropped once read, records appended after reopen are read next
+      journal.append(records("three"));
+      assertThat(strings(journal.read(10))).containsExactly("three");
+    }
+  }
+
+  private List<Path> segments() throws IOException {
+    try (Stream<Path> files = Files.list(this.directory)) {
+      return files.sorted().toList();
+    }
+  }
+
+  private static List<byte[]> records(final String... records) {
+    return Stream.of(records).map(record -> record.getBytes(StandardCharsets.UTF_8)).toList();
+  }
+
+  private static List<byte[]> records(final int size, final String... records) {
+    return Stream.of(records)
+        .map(record -> record.repeat(size).getBytes(StandardCharsets.UTF_8))
+        .toList();
+  }
+
+  private static List<String> strings(final AuditJournal.Batch batch) {
+    return batch.records().stream()
+        .map(record -> new String(record, StandardCharsets.UTF_8))
+        .toList();
+  }
+}
@@ -0,0 +1,130 @@
+package com.ksoot.mongodb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+class AuditProjectionTest {
+
+  private static final Document SOURCE =
+      new Document("_id", 1)
+          .append("name", "Pen")
+          .append("price", new Document("amount", 10).append("currency", "INR"))
+          .append(
+              "variants",
+              List.of(
+                  new Document("colour", "blue").append("sku", "P-1"),
+                  new Document("colour", "red").append("sku", "P-2")))
+          .append("lastViewed", 1700000000000L);
+
+  @Test
+  void identityReturnsSourceAsIs() {
+    final AuditProjection projection = AuditProjection.of(List.of(), List.of());
+
+    assertThat(projection.isIdentity()).isTrue();
+    assertThat(projection.apply(SOURCE)).isSameAs(SOURCE);
+  }
+
+  @Test
+  void includesGivenPathsAndAlwaysId() {
+    final Document projected =
+        AuditProjection.of(List.of("name", "price.amount", "variants.sku"), List.of())
+            .apply(SOURCE);
+
+    assertThat(projected)
+        .isEqualTo(
+            new Document("_id", 1)
+                .append("name", "Pen")
+                .append("price", new Document("amount", 10))
+                .append(
+                    "variants", List.of(new Document("sku", "P-1"), new Document("sku", "P-2"))));
+  }
+
+  @Test
+  void excludesGivenPathsWithoutModifyingSource() {
+    final Document original = new Document(SOURCE);
+
+    final Document projected =
+        AuditProjection.of(List.of(), List.of("lastViewed", "price.currency", "variants.colour"))
+            .apply(SOURCE);
+
+    assertThat(projected)
+        .isEqualTo(
+            new Document("_id", 1)
+                .append("name", "Pen")
+                .append("price", new Document("amount", 10))
+                .append(
+                    "variants", List.of(new Document("sku", "P-1"), new Document("sku", "P-2"))));
+    assertThat(SOURCE).isEqualTo(original);
+    assertThat(SOURCE.get("price", Document.class)).containsKey("currency");
+  }
+
+  @Test
+  void excludesAfterIncludes() {
+    final Document projected =
+        AuditProjection.of(List.of("name", "price"), List.of("price.currency")).apply(SOURCE);
+
+    assertThat(projected)
+        .isEqualTo(
+            new Document("_id", 1)
+                .append("name", "Pen")
+                .append("price", new Document("amount", 10)));
+  }
+
+  @Test
+  void idCanNotBeExcluded() {
+    assertThatThrownBy(() -> AuditProjection.of(List.of(), List.of("_id")))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void excludesFieldsAnnotatedWithAuditIgnore() {
+    final MongoMappingContext mappingContext = new MongoMappingContext();
+
+    final Document projected =
+        AuditProjection.of(
+                mappingContext.getRequiredPersistentEntity(Item.class),
+                Item.class.getAnnotation(Auditable.class),
+                mappingContext)
+            .apply(
+                new Document("_id", 1)
+                    .append("name", "Pen")
+                    .append("views", 12)
+                    .append("cached", "x")
+                    .append("price", new Document("amount", 10).append("fxRate", 83.2)));
+
+    assertThat(projected)
+        .isEqualTo(
+            new Document("_id", 1)
+                .append("name", "Pen")
+                .append("price", new Document("amount", 10)));
+  }
+
+  @Auditable(excludes = "cached")
+  static class Item {
+
+    private Integer id;
+
+    private String name;
+
+    @AuditIgnore
+    @Field("views")
+    private Integer viewCount;
+
+    private String cached;
+
+    private Price price;
+  }
+
+  static class Price {
+
+    private Integer amount;
+
+    @AuditIgnore private Double fxRate;
+  }
+}
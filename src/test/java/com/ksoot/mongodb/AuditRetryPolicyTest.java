@@ -0,0 +1,143 @@
+package com.ksoot.mongodb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.mongodb.BulkOperationException;
+
+class AuditRetryPolicyTest {
+
+  private MongoAuditProperties mongoAuditProperties;
+
+  private SimpleMeterRegistry meterRegistry;
+
+  private AuditRetryPolicy auditRetryPolicy;
+
+  @BeforeEach
+  void setUp() {
+    this.mongoAuditProperties = new MongoAuditProperties();
+    final MongoAuditProperties.Auditing.Retry retry =
+        this.mongoAuditProperties.getAuditing().getRetry();
+    retry.setInitialBackoff(Duration.ofMillis(10));
+    retry.setMaxBackoff(Duration.ofMillis(50));
+    retry.setMultiplier(2.0);
+    retry.setJitter(0.5);
+    this.meterRegistry = new SimpleMeterRegistry();
+    this.auditRetryPolicy = new AuditRetryPolicy(this.mongoAuditProperties, this.meterRegistry);
+  }
+
+  @Test
+  void backoffGrowsExponentiallyWithinJitterAndCap() {
+    for (int i = 0; i < 100; i++) {
+      assertThat(this.auditRetryPolicy.delay(1))
+          .isBetween(Duration.ofMillis(5).toNanos(), Duration.ofMillis(10).toNanos());
+      assertThat(this.auditRetryPolicy.delay(2))
+          .isBetween(Duration.ofMillis(10).toNanos(), Duration.ofMillis(20).toNanos());
+      assertThat(this.auditRetryPolicy.delay(3))
+          .isBetween(Duration.ofMillis(20).toNanos(), Duration.ofMillis(40).toNanos());
+      // Capped at max-backoff
+      assertThat(this.auditRetryPolicy.delay(10))
+          .isBetween(Duration.ofMillis(25).toNanos(), Duration.ofMillis(50).toNanos());
+    }
+  }
+
+  @Test
+  void backoffWithoutJitterIsExact() {
+    this.mongoAuditProperties.getAuditing().getRetry().setJitter(0.0);
+
+    assertThat(this.auditRetryPolicy.delay(3)).isEqualTo(Duration.ofMillis(40).toNanos());
+  }
+
+  @Test
+  void retriesRevisionConflictsUntilWritten() {
+    this.mongoAuditProperties.getAuditing().getRetry().setInitialBackoff(Duration.ofMillis(1));
+    final AtomicInteger attempts = new AtomicInteger();
+
+    this.auditRetryPolicy.execute(
+        metadata(),
+        "products",
+        () -> {
+          if (attempts.incrementAndGet() < 3) {
+            throw new DuplicateKeyException("revision conflict");
+          }
+        });
+
+    assertThat(attempts.get()).isEqualTo(3);
+    assertThat(this.count("mongodb.audit.revision.conflicts")).isEqualTo(2.0);
+    assertThat(this.count("mongodb.audit.revision.retries")).isEqualTo(2.0);
+  }
+
+  @Test
+  void failsAfterMaxAttempts() {
+    this.mongoAuditProperties.getAuditing().getRetry().setInitialBackoff(Duration.ofMillis(1));
+    final AtomicInteger attempts = new AtomicInteger();
+
+    assertThatThrownBy(
+            () ->
+                this.auditRetryPolicy.execute(
+                    metadata(),
+                    "products",
+                    () -> {
+                      attempts.incrementAndGet();
+                      throw new DuplicateKeyException("revision conflict");
+                    }))
+        .isInstanceOf(IllegalStateException.class)
+        .hasCauseInstanceOf(DuplicateKeyException.class);
+    assertThat(attempts.get()).isEqualTo(this.auditRetryPolicy.maxAttempts());
+  }
+
+  @Test
+  void classifiesTransientFailures() {
+    assertThat(AuditRetryPolicy.isTransient(new QueryTimeoutException("timeout"))).isTrue();
+    assertThat(AuditRetryPolicy.isTransient(new DataAccessResourceFailureException("down")))
+        .isTrue();
+    assertThat(AuditRetryPolicy.isTransient(new DuplicateKeyException("conflict"))).isTrue();
+    assertThat(AuditRetryPolicy.isTransient(bulkFailure(11000))).isTrue();
+    assertThat(AuditRetryPolicy.isTransient(bulkFailure(121))).isFalse();
+    assertThat(AuditRetryPolicy.isTransient(new DataIntegrityViolationException("invalid")))
+        .isFalse();
+  }
+
+  private double count(final String name) {
+    return this.meterRegistry.get(name).tag("collection", "products").counter().count();
+  }
+
+  private static AuditMetaData.Metadata metadata() {
+    return new AuditMetaData.Metadata(
+        "products_aud",
+        "version",
+        Auditable.RevisionScope.COLLECTION,
+        Auditable.Storage.FULL,
+        Auditable.Compression.NONE,
+        AuditProjection.IDENTITY,
+        false,
+        null);
+  }
+
+  private static BulkOperationException bulkFailure(final int code) {
+    return new BulkOperationException(
+        "Bulk write failed",
+        new MongoBulkWriteException(
+            BulkWriteResult.unacknowledged(),
+            List.of(new BulkWriteError(code, "failed", new BsonDocument(), 0)),
+            null,
+            new ServerAddress(),
+            Set.of()));
+  }
+}
@@ -0,0 +1,125 @@
+package com.ksoot.mongodb;
+
+import static com.ksoot.mongodb.AuditDeltaEncoderTest.event;
+import static com.ksoot.mongodb.AuditDeltaEncoderTest.metadata;
+import static com.ksoot.mongodb.AuditDeltaEncoderTest.product;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+
+class AuditSnapshotResolverTest {
+
+  private static final String AUDIT_COLLECTION = "products_aud";
+
+  @TempDir Path archiveDirectory;
+
+  private AuditDeltaEncoder auditDeltaEncoder;
+
+  private AuditSnapshotResolver auditSnapshotResolver;
+
+  private MongoOperations mongoOperations;
+
+  @BeforeEach
+  void setUp() {
+    final MongoAuditProperties mongoAuditProperties = new MongoAuditProperties();
+    mongoAuditProperties.getAuditing().getDelta().setKeyframeInterval(3);
+    mongoAuditProperties.getAuditing().getArchive().setDirectory(this.archiveDirectory.toString());
+    final AuditMetaData auditMetaData = new AuditMetaData();
+    auditMetaData.register(Map.of("products", metadata(Auditable.Storage.DELTA)));
+    this.auditDeltaEncoder = new AuditDeltaEncoder(mongoAuditProperties, auditMetaData);
+    this.mongoOperations = mock(MongoOperations.class);
+    this.auditSnapshotResolver =
+        new AuditSnapshotResolver(
+            this.mongoOperations,
+            new AuditSourceCompressor(
+                mongoAuditProperties, auditMetaData, new SimpleMeterRegistry()),
+            new AuditArchive(mongoAuditProperties));
+  }
+
+  @Test
+  void rebuildsFullSnapshotsFromDeltasAndKeyframes() {
+    final List<AuditEvent> auditEvents =
+        List.of(
+            event(AuditEvent.Type.CREATED, 1, product(1, "Pen", 10)),
+            event(AuditEvent.Type.UPDATED, 2, product(1, "Pen", 12)),
+            event(AuditEvent.Type.UPDATED, 3, product(1, "Ink pen", 12)),
+            event(AuditEvent.Type.UPDATED, 4, product(1, "Ink pen", 15)),
+            event(AuditEvent.Type.UPDATED, 5, product(1, "Gel pen", 15)));
+    final List<AuditEvent> encoded = this.auditDeltaEncoder.encode(auditEvents);
+    this.store(encoded);
+
+    // Latest first, as a page of Audit history, without the keyframes
+    final List<AuditEvent> page =
+        encoded.stream()
+            .filter(AuditEvent::hasDelta)
+            .sorted((a, b) -> Long.compare(b.getRevision(), a.getRevision()))
+            .toList();
+    final List<AuditEvent> resolved =
+        this.auditSnapshotResolver.resolve(AUDIT_COLLECTION, page, true);
+
+    assertThat(resolved.stream().map(AuditEvent::getRevision).toList())
+        .containsExactly(5L, 3L, 2L);
+    assertThat(resolved.stream().map(AuditEvent::getSource).toList())
+        .containsExactly(
+            product(1, "Gel pen", 15), product(1, "Ink pen", 12), product(1, "Pen", 12));
+    assertThat(resolved.stream().noneMatch(AuditEvent::hasDelta)).isTrue();
+  }
+
+  @Test
+  void keepsDeltasIfFullSnapshotIsNotRequested() {
+    final List<AuditEvent> encoded =
+        this.auditDeltaEncoder.encode(
+            List.of(
+                event(AuditEvent.Type.CREATED, 1, product(1, "Pen", 10)),
+                event(AuditEvent.Type.UPDATED, 2, product(1, "Pen", 12))));
+
+    final List<AuditEvent> resolved =
+        this.auditSnapshotResolver.resolve(AUDIT_COLLECTION, encoded, false);
+
+    assertThat(resolved.get(1).hasDelta()).isTrue();
+    assertThat(resolved.get(1).getSource()).isEqualTo(new Document("_id", 1));
+  }
+
+  @Test
+  void failsIfBaseRevisionIsNotFound() {
+    final List<AuditEvent> encoded =
+        this.auditDeltaEncoder.encode(
+            List.of(
+                event(AuditEvent.Type.CREATED, 1, product(1, "Pen", 10)),
+                event(AuditEvent.Type.UPDATED, 2, product(1, "Pen", 12))));
+    this.store(List.of());
+
+    assertThatThrownBy(
+            () -> this.auditSnapshotResolver.resolve(AUDIT_COLLECTION, encoded.subList(1, 2), true))
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("Base revision: 1");
+  }
+
+  // Serves Audit records by the revision queried
+  private void store(final List<AuditEvent> auditEvents) {
+    when(this.mongoOperations.findOne(any(Query.class), eq(AuditEvent.class), eq(AUDIT_COLLECTION)))
+        .thenAnswer(
+            invocation -> {
+              final Object revision =
+                  invocation.getArgument(0, Query.class).getQueryObject().get("revision");
+              return auditEvents.stream()
+                  .filter(auditEvent -> auditEvent.getRevision().equals(revision))
+                  .findFirst()
+                  .orElse(null);
+            });
+  }
+}
@@ -0,0 +1,127 @@
+package com.ksoot.mongodb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+class AuditSourceCompressorTest {
+
+  private SimpleMeterRegistry meterRegistry;
+
+  private AuditSourceCompressor auditSourceCompressor;
+
+  @BeforeEach
+  void setUp() {
+    final MongoAuditProperties mongoAuditProperties = new MongoAuditProperties();
+    mongoAuditProperties.getAuditing().getCompression().setThreshold(DataSize.ofBytes(256));
+    final AuditMetaData auditMetaData = new AuditMetaData();
+    auditMetaData.register(
+        Map.of(
+            "products", metadata(Auditable.Compression.DEFLATE),
+            "orders", metadata(Auditable.Compression.DEFLATE_FAST),
+            "carts", metadata(Auditable.Compression.NONE)));
+    this.meterRegistry = new SimpleMeterRegistry();
+    this.auditSourceCompressor =
+        new AuditSourceCompressor(mongoAuditProperties, auditMetaData, this.meterRegistry);
+  }
+
+  @Test
+  void compressesLargeSnapshotsAndDecompressesThemBack() {
+    for (final String collectionName : List.of("products", "orders")) {
+      final Document source = largeSource();
+
+      final AuditEvent compressed =
+          this.auditSourceCompressor.compress(List.of(event(collectionName, source))).get(0);
+      final AuditEvent decompressed = this.auditSourceCompressor.decompress(compressed);
+
+      assertThat(compressed.isCompressed()).isTrue();
+      assertThat(compressed.getSource()).isEqualTo(new Document("_id", 1));
+      assertThat(decompressed.isCompressed()).isFalse();
+      assertThat(decompressed.getCompression()).isNull();
+      assertThat(decompressed.getSource()).isInstanceOf(LazyDocument.class);
+      // Document equality requires the same class
+      assertThat(new Document(decompressed.getSource())).isEqualTo(source);
+    }
+    assertThat(
+            this.meterRegistry
+                .get("mongodb.audit.compression.ratio")
+                .tags("collection", "products", "algorithm", "DEFLATE")
+                .summary()
+                .count())
+        .isEqualTo(1L);
+  }
+
+  @Test
+  void keepsSmallSnapshotsUncompressed() {
+    final Document source = new Document("_id", 1).append("name", "Pen");
+
+    final AuditEvent auditEvent =
+        this.auditSourceCompressor.compress(List.of(event("products", source))).get(0);
+
+    assertThat(auditEvent.isCompressed()).isFalse();
+    assertThat(auditEvent.getSource()).isSameAs(source);
+    assertThat(this.auditSourceCompressor.decompress(auditEvent)).isSameAs(auditEvent);
+  }
+
+  @Test
+  void keepsSnapshotsOfCollectionsWithoutCompressionAndDeltas() {
+    final AuditEvent uncompressed =
+        this.auditSourceCompressor.compress(List.of(event("carts", largeSource()))).get(0);
+    final AuditEvent delta =
+        this.auditSourceCompressor
+            .compress(
+                List.of(
+                    event("products", largeSource())
+                        .asDelta(1L, List.of(new Document(DocumentDiff.OP, DocumentDiff.OP_SET)))))
+            .get(0);
+
+    assertThat(uncompressed.isCompressed()).isFalse();
+    assertThat(delta.isCompressed()).isFalse();
+  }
+
+  @Test
+  void failsOnTruncatedSnapshot() {
+    final AuditEvent compressed =
+        this.auditSourceCompressor.compress(List.of(event("products", largeSource()))).get(0);
+    final AuditEvent truncated =
+        compressed.asCompressed(
+            compressed.getCompression(),
+            Arrays.copyOf(
+                compressed.getCompressedSource(), compressed.getCompressedSource().length / 2));
+
+    assertThatThrownBy(() -> this.auditSourceCompressor.decompress(truncated))
+        .isInstanceOf(IllegalStateException.class);
+  }
+
+  private static AuditMetaData.Metadata metadata(final Auditable.Compression compression) {
+    return new AuditMetaData.Metadata(
+        "audit",
+        "version",
+        Auditable.RevisionScope.COLLECTION,
+        Auditable.Storage.FULL,
+        compression,
+        AuditProjection.IDENTITY,
+        false,
+        null);
+  }
+
+  private static AuditEvent event(final String collectionName, final Document source) {
+    return AuditEvent.of(
+        AuditEvent.Type.UPDATED, System.currentTimeMillis(), 2L, collectionName, source, "SYSTEM");
+  }
+
+  private static Document largeSource() {
+    return new Document("_id", 1)
+        .append("name", "Pen")
+        .append("description", "Blue ink pen with a steel nib. ".repeat(40))
+        .append("price", new Document("amount", 10).append("currency", "INR"));
+  }
+}
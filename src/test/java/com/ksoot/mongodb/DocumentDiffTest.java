@@ -0,0 +1,78 @@
+package com.ksoot.mongodb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+class DocumentDiffTest {
+
+  @Test
+  void diffOfEqualDocumentsIsEmpty() {
+    final Document document =
+        new Document("_id", 1).append("name", "Pen").append("price", new Document("amount", 10));
+
+    assertThat(DocumentDiff.diff(document, new Document(document))).isEmpty();
+  }
+
+  @Test
+  void diffSetsChangedAndAddedFieldsAndUnsetsRemovedFields() {
+    final Document previous =
+        new Document("_id", 1).append("name", "Pen").append("description", "Blue pen");
+    final Document current = new Document("_id", 1).append("name", "Ink pen").append("stock", 5);
+
+    assertThat(DocumentDiff.diff(previous, current))
+        .containsExactly(
+            new Document(DocumentDiff.OP, DocumentDiff.OP_SET)
+                .append(DocumentDiff.PATH, List.of("name"))
+                .append(DocumentDiff.VALUE, "Ink pen"),
+            new Document(DocumentDiff.OP, DocumentDiff.OP_SET)
+                .append(DocumentDiff.PATH, List.of("stock"))
+                .append(DocumentDiff.VALUE, 5),
+            new Document(DocumentDiff.OP, DocumentDiff.OP_UNSET)
+                .append(DocumentDiff.PATH, List.of("description")));
+  }
+
+  @Test
+  void diffDescendsIntoEmbeddedDocumentsAndReplacesArrays() {
+    final Document previous =
+        new Document("_id", 1)
+            .append("price", new Document("amount", 10).append("currency", "INR"))
+            .append("tags", List.of("stationery"));
+    final Document current =
+        new Document("_id", 1)
+            .append("price", new Document("amount", 12).append("currency", "INR"))
+            .append("tags", List.of("stationery", "office"));
+
+    assertThat(DocumentDiff.diff(previous, current))
+        .containsExactly(
+            new Document(DocumentDiff.OP, DocumentDiff.OP_SET)
+                .append(DocumentDiff.PATH, List.of("price", "amount"))
+                .append(DocumentDiff.VALUE, 12),
+            new Document(DocumentDiff.OP, DocumentDiff.OP_SET)
+                .append(DocumentDiff.PATH, List.of("tags"))
+                .append(DocumentDiff.VALUE, List.of("stationery", "office")));
+  }
+
+  @Test
+  void applyRebuildsCurrentDocumentWithoutModifyingPrevious() {
+    final Document previous =
+        new Document("_id", 1)
+            .append("name", "Pen")
+            .append("description", "Blue pen")
+            .append("price", new Document("amount", 10).append("currency", "INR"));
+    final Document current =
+        new Document("_id", 1)
+            .append("name", "Ink pen")
+            .append("price", new Document("amount", 12).append("currency", "INR"))
+            .append("attributes", new Document("colour", "blue"));
+    final Document original = new Document(previous);
+
+    assertThat(DocumentDiff.apply(previous, DocumentDiff.diff(previous, current)))
+        .isEqualTo(current);
+    assertThat(previous).isEqualTo(original);
+    assertThat(previous.get("price", Document.class))
+        .isEqualTo(new Document("amount", 10).append("currency", "INR"));
+  }
+}
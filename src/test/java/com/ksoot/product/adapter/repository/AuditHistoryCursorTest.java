@@ -0,0 +1,96 @@
+package com.ksoot.product.adapter.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Sort;
+
+class AuditHistoryCursorTest {
+
+  @Test
+  void roundTripsDatetimePositionWithObjectId() {
+    final AuditHistoryCursor cursor =
+        new AuditHistoryCursor(
+            "datetime", Sort.Direction.DESC, new Date(1700000000123L), new ObjectId());
+
+    assertThat(AuditHistoryCursor.decode(cursor.encode())).isEqualTo(cursor);
+  }
+
+  @Test
+  void roundTripsRevisionPositionWithStringId() {
+    final AuditHistoryCursor cursor =
+        new AuditHistoryCursor("revision", Sort.Direction.ASC, 42L, "products:1:42");
+
+    assertThat(AuditHistoryCursor.decode(cursor.encode())).isEqualTo(cursor);
+  }
+
+  @Test
+  void rejectsMalformedTokens() {
+    final String unknownProperty =
+        Base64.getUrlEncoder().encodeToString("actor:ASC:1:s:x".getBytes());
+
+    assertThatThrownBy(() -> AuditHistoryCursor.decode(unknownProperty))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> AuditHistoryCursor.decode("bm90LWEtY3Vyc29y"))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void firstPageFollowsSortOnDatetimeOrRevisionOnly() {
+    assertThat(AuditHistoryCursor.first(Sort.by(Sort.Direction.ASC, "revision")))
+        .isEqualTo(new AuditHistoryCursor("revision", Sort.Direction.ASC, null, null));
+    assertThat(AuditHistoryCursor.first(Sort.by("actor")))
+        .isEqualTo(new AuditHistoryCursor("datetime", Sort.Direction.DESC, null, null));
+    assertThat(AuditHistoryCursor.first(Sort.unsorted()).isFirst()).isTrue();
+  }
+
+  @Test
+  void seeksAfterLastAuditRecordBreakingTiesOnId() {
+    final ObjectId id = new ObjectId();
+    final Date datetime = new Date(1700000000123L);
+    final AuditHistoryCursor cursor =
+        new AuditHistoryCursor("datetime", Sort.Direction.DESC, datetime, id);
+
+    assertThat(cursor.sort()).isEqualTo(Sort.by(Sort.Direction.DESC, "datetime", "_id"));
+    assertThat(cursor.criteria().getCriteriaObject())
+        .isEqualTo(
+            new Document(
+                "$or",
+                List.of(
+                    new Document("datetime", new Document("$lt", datetime)),
+                    new Document("datetime", datetime).append("_id", new Document("$lt", id)))));
+  }
+
+  @Test
+  void seeksOnRevisionAloneIfRevisionsAreUnique() {
+    final AuditHistoryCursor cursor =
+        new AuditHistoryCursor("revision", Sort.Direction.ASC, 42L, new ObjectId());
+
+    assertThat(cursor.sort(true)).isEqualTo(Sort.by(Sort.Direction.ASC, "revision"));
+    assertThat(cursor.criteria(true).getCriteriaObject())
+        .isEqualTo(new Document("revision", new Document("$gt", 42L)));
+    assertThat(cursor.sort(false)).isEqualTo(Sort.by(Sort.Direction.ASC, "revision", "_id"));
+  }
+
+  @Test
+  void positionsAfterAuditRecordAsStored() {
+    final ObjectId id = new ObjectId();
+    final AuditHistoryCursor first = AuditHistoryCursor.firstOfDocument(Sort.Direction.ASC);
+
+    assertThat(first.after(new Document("datetime", new Date(1L)).append("_id", id)))
+        .isEqualTo(new AuditHistoryCursor("datetime", Sort.Direction.ASC, new Date(1L), id));
+    assertThat(
+            AuditHistoryCursor.first(Sort.by("revision"))
+                .after(
+                    new Document("revision", 3L)
+                        .append("_id", "products:1:3")
+                        .append("datetime", new Date(1L))))
+        .isEqualTo(new AuditHistoryCursor("revision", Sort.Direction.ASC, 3L, "products:1:3"));
+  }
+}